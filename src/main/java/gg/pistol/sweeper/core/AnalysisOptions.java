@@ -0,0 +1,437 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import gg.pistol.sweeper.core.resource.ChannelResourceFile;
+import gg.pistol.sweeper.core.resource.PhysicalResourceFile;
+import gg.pistol.sweeper.core.resource.ResourceDevice;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Options that tune how the analysis searches for duplicates.
+ *
+ * <p>The analysis works with a copy of the options taken when it starts, changing them while an analysis is in
+ * progress has no effect on that analysis (the changes apply to the next analysis).
+ *
+ * @author Bogdan Pistol
+ */
+public class AnalysisOptions {
+
+    private static final long[] DEFAULT_HASH_ROUNDS = {4 * (1 << 10), 1 << 20, 64 * (1 << 20)}; // 4 KB, 1 MB, 64 MB
+
+    // The default memory threshold of the grouping is a fraction of the maximum heap size.
+    private static final int DEFAULT_EXTERNAL_GROUPING_MEMORY_FRACTION = 4;
+
+    private int traversalThreads;
+
+    private long[] hashRounds;
+    private boolean partialHashTail;
+
+    private int hashThreads;
+    private int rotationalHashThreads;
+    private boolean physicalReadOrder;
+    private boolean pipelinedHashing;
+
+    private ReadMode readMode;
+
+    private HashAlgorithm hashAlgorithm;
+
+    @Nullable private File hashCacheFile;
+
+    private int directCompareMaxGroupSize;
+
+    private long externalGroupingMemory;
+    @Nullable private File externalGroupingDirectory;
+
+
+    /**
+     * Create the options with the default values.
+     */
+    public AnalysisOptions() {
+        traversalThreads = 1;
+        hashRounds = DEFAULT_HASH_ROUNDS.clone();
+        hashThreads = 1;
+        rotationalHashThreads = 1;
+        readMode = ReadMode.CHANNEL;
+        hashAlgorithm = StandardHashAlgorithm.SHA_1;
+        externalGroupingMemory = Runtime.getRuntime().maxMemory() / DEFAULT_EXTERNAL_GROUPING_MEMORY_FRACTION;
+    }
+
+    /**
+     * Create a copy of the options (the analysis works with a copy taken when it starts).
+     */
+    AnalysisOptions(AnalysisOptions other) {
+        Preconditions.checkNotNull(other);
+        traversalThreads = other.traversalThreads;
+        hashRounds = other.hashRounds.clone();
+        partialHashTail = other.partialHashTail;
+        hashThreads = other.hashThreads;
+        rotationalHashThreads = other.rotationalHashThreads;
+        physicalReadOrder = other.physicalReadOrder;
+        pipelinedHashing = other.pipelinedHashing;
+        readMode = other.readMode;
+        hashAlgorithm = other.hashAlgorithm;
+        hashCacheFile = other.hashCacheFile;
+        directCompareMaxGroupSize = other.directCompareMaxGroupSize;
+        externalGroupingMemory = other.externalGroupingMemory;
+        externalGroupingDirectory = other.externalGroupingDirectory;
+    }
+
+    /**
+     * Getter for the number of threads that are listing directories concurrently.
+     *
+     * @return the number of traversal threads
+     */
+    public int getTraversalThreads() {
+        return traversalThreads;
+    }
+
+    /**
+     * Configure the number of threads that are listing directories concurrently while traversing the resources. The
+     * sibling directories are listed in parallel with work stealing, which helps on high latency file systems (like
+     * network mounts) where each directory listing waits for the server.
+     *
+     * @param traversalThreads
+     *         the number of traversal threads (at least one)
+     */
+    public void setTraversalThreads(int traversalThreads) {
+        Preconditions.checkArgument(traversalThreads >= 1);
+        this.traversalThreads = traversalThreads;
+    }
+
+    /**
+     * Getter for the hash rounds.
+     *
+     * @return a copy of the increasing prefix sizes in bytes, empty in case the hash rounds are disabled
+     */
+    public long[] getHashRounds() {
+        return hashRounds.clone();
+    }
+
+    /**
+     * Configure the rounds in which the files that have the same size are hashed progressively (by default 4 KB,
+     * 1 MB and 64 MB). After each round the files are grouped by the hash of their prefix and the files that become
+     * unique are no longer read. Each round continues the hash from where the previous round stopped, and the files
+     * that remain candidates after the last round are hashed until the end without reading their prefix again.
+     *
+     * @param hashRounds
+     *         the strictly increasing prefix sizes in bytes of each round, none to disable the hash rounds
+     */
+    public void setHashRounds(long... hashRounds) {
+        Preconditions.checkNotNull(hashRounds);
+        for (int i = 0; i < hashRounds.length; i++) {
+            Preconditions.checkArgument(hashRounds[i] > 0 && (i == 0 || hashRounds[i] > hashRounds[i - 1]),
+                    "The hash rounds must be positive and strictly increasing");
+        }
+        this.hashRounds = hashRounds.clone();
+    }
+
+    /**
+     * Determine if the first hash round also includes the tail window of the files.
+     *
+     * @return {@code true} if the tail window is hashed in the first round together with the prefix
+     */
+    public boolean isPartialHashTail() {
+        return partialHashTail;
+    }
+
+    /**
+     * Configure the first hash round to also include a tail window of the files with the same size as the first round
+     * prefix (useful for file formats that have identical headers).
+     *
+     * @param partialHashTail
+     *         {@code true} to hash the tail window in the first round together with the prefix
+     */
+    public void setPartialHashTail(boolean partialHashTail) {
+        this.partialHashTail = partialHashTail;
+    }
+
+    /**
+     * Getter for the number of threads that are hashing files concurrently.
+     *
+     * @return the number of hashing threads
+     */
+    public int getHashThreads() {
+        return hashThreads;
+    }
+
+    /**
+     * Configure the number of threads that are hashing files concurrently from the same non-rotational (or unknown)
+     * {@link ResourceDevice device}, each thread has its own hash function. The files are queued per device and
+     * the devices are read concurrently. The directories are hashed after all of their descendant files are hashed.
+     *
+     * <p>With the defaults of a single thread per device and without the {@link #setPhysicalReadOrder physical read
+     * order}, the devices of the files are not looked up and all the files are hashed sequentially by one thread.
+     *
+     * @param hashThreads
+     *         the number of hashing threads per device (at least one)
+     */
+    public void setHashThreads(int hashThreads) {
+        Preconditions.checkArgument(hashThreads >= 1);
+        this.hashThreads = hashThreads;
+    }
+
+    /**
+     * Getter for the number of threads that are hashing files concurrently from the same rotational device.
+     *
+     * @return the number of hashing threads per rotational device
+     */
+    public int getRotationalHashThreads() {
+        return rotationalHashThreads;
+    }
+
+    /**
+     * Configure the number of threads that are hashing files concurrently from the same rotational
+     * {@link ResourceDevice device} (a single sequential reader by default, concurrent readers make a hard disk drive
+     * seek between the files).
+     *
+     * @param rotationalHashThreads
+     *         the number of hashing threads per rotational device (at least one)
+     */
+    public void setRotationalHashThreads(int rotationalHashThreads) {
+        Preconditions.checkArgument(rotationalHashThreads >= 1);
+        this.rotationalHashThreads = rotationalHashThreads;
+    }
+
+    /**
+     * Determine if the files of a device are read in their physical order.
+     *
+     * @return {@code true} if the files are read in physical order
+     */
+    public boolean isPhysicalReadOrder() {
+        return physicalReadOrder;
+    }
+
+    /**
+     * Configure the files queued for hashing on each {@link ResourceDevice device} to be read in the increasing order
+     * of their {@link PhysicalResourceFile#getPhysicalOrder() physical order} (e.g. inode number) instead of the order
+     * of the directory traversal, which reduces the seeks of the rotational devices.
+     *
+     * @param physicalReadOrder
+     *         {@code true} to read the files in physical order
+     */
+    public void setPhysicalReadOrder(boolean physicalReadOrder) {
+        this.physicalReadOrder = physicalReadOrder;
+    }
+
+    /**
+     * Determine if the files are hashed while the resources are still traversed.
+     *
+     * @return {@code true} if the hashing is pipelined with the traversal
+     */
+    public boolean isPipelinedHashing() {
+        return pipelinedHashing;
+    }
+
+    /**
+     * Configure the files to be hashed while the resources are still traversed: as soon as two discovered files have
+     * the same size they are hashed in the background (with the first of the hash rounds, or completely in case the
+     * hash rounds are disabled) by {@link #getHashThreads()} threads, so reading the content overlaps with reading the
+     * file system metadata. The files may be hashed even though they turn out not to be duplicate candidates later
+     * (e.g. hard links or the single children of directories).
+     *
+     * @param pipelinedHashing
+     *         {@code true} to hash the files during the traversal
+     */
+    public void setPipelinedHashing(boolean pipelinedHashing) {
+        this.pipelinedHashing = pipelinedHashing;
+    }
+
+    /**
+     * Getter for the way the file content is read while computing the full hash.
+     *
+     * @return the read mode
+     */
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    /**
+     * Configure the way the file content is read while computing the full hash. The {@link ReadMode#CHANNEL} and
+     * {@link ReadMode#MAPPED} modes apply only to the resources that are {@link ChannelResourceFile}s, the other
+     * resources are always read as streams.
+     *
+     * @param readMode
+     *         the read mode
+     */
+    public void setReadMode(ReadMode readMode) {
+        Preconditions.checkNotNull(readMode);
+        this.readMode = readMode;
+    }
+
+    /**
+     * Getter for the algorithm used to hash the content of the targets.
+     *
+     * @return the hash algorithm
+     */
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Configure the algorithm used to hash the content of the targets. The non-cryptographic
+     * {@link StandardHashAlgorithm#MURMUR3_128} is the fastest, while {@link StandardHashAlgorithm#SHA_256} has the
+     * lowest probability of collisions.
+     *
+     * @param hashAlgorithm
+     *         the hash algorithm
+     */
+    public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        Preconditions.checkNotNull(hashAlgorithm);
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    /**
+     * Getter for the file of the persistent hash cache.
+     *
+     * @return the cache file or {@code null} in case the hash cache is disabled
+     */
+    @Nullable
+    public File getHashCacheFile() {
+        return hashCacheFile;
+    }
+
+    /**
+     * Configure the file of the persistent hash cache. The hashes of the files are stored in the cache at the end of
+     * the analysis and they are reused by the next analyses for the files that still have the same path, size,
+     * modification date and {@link PhysicalResourceFile#getFileKey() file key}, instead of reading the files again.
+     *
+     * @param hashCacheFile
+     *         the cache file or {@code null} to disable the hash cache
+     */
+    public void setHashCacheFile(@Nullable File hashCacheFile) {
+        this.hashCacheFile = hashCacheFile;
+    }
+
+    /**
+     * Getter for the maximum size of the groups of files that are compared directly.
+     *
+     * @return the maximum number of files in a group or {@code 0} in case the direct comparison is disabled
+     */
+    public int getDirectCompareMaxGroupSize() {
+        return directCompareMaxGroupSize;
+    }
+
+    /**
+     * Configure the direct comparison of small groups of files with the same size. Instead of being hashed, the
+     * content of the files from such a group is read in lockstep and compared block by block, stopping as soon as the
+     * files become unique. The resulting duplicate groups have no hash.
+     *
+     * <p>Only the groups made entirely of files are compared directly and only if none of the files is inside
+     * a directory that is itself a duplicate candidate (because the hash of such a directory requires the hashes of
+     * its files).
+     *
+     * @param directCompareMaxGroupSize
+     *         the maximum number of files in a group (e.g. {@code 3}) or {@code 0} to disable the direct comparison
+     */
+    public void setDirectCompareMaxGroupSize(int directCompareMaxGroupSize) {
+        Preconditions.checkArgument(directCompareMaxGroupSize >= 0);
+        this.directCompareMaxGroupSize = directCompareMaxGroupSize;
+    }
+
+    /**
+     * Getter for the estimated memory of the grouping in memory above which the targets are grouped by size and by
+     * hash on disk.
+     *
+     * @return the memory in bytes or {@code 0} in case the grouping is always done in memory
+     */
+    public long getExternalGroupingMemory() {
+        return externalGroupingMemory;
+    }
+
+    /**
+     * Configure the grouping on disk of the targets by size and by hash for the very large analyses. When the
+     * estimated memory of grouping the targets in memory exceeds the threshold, the targets are written to temporary
+     * files in sorted runs and the runs are merged afterwards. The length of the runs is derived from the maximum heap
+     * size, which keeps the memory used by the grouping bounded.
+     *
+     * @param externalGroupingMemory
+     *         the memory in bytes (by default a quarter of the maximum heap size) or {@code 0} to always group in
+     *         memory
+     */
+    public void setExternalGroupingMemory(long externalGroupingMemory) {
+        Preconditions.checkArgument(externalGroupingMemory >= 0);
+        this.externalGroupingMemory = externalGroupingMemory;
+    }
+
+    /**
+     * Getter for the directory of the temporary files used by the grouping on disk.
+     *
+     * @return the directory or {@code null} for the default temporary directory
+     */
+    @Nullable
+    public File getExternalGroupingDirectory() {
+        return externalGroupingDirectory;
+    }
+
+    /**
+     * Configure the directory of the temporary files used by the grouping on disk (see
+     * {@link #setExternalGroupingMemory}).
+     *
+     * @param externalGroupingDirectory
+     *         the directory or {@code null} for the default temporary directory
+     */
+    public void setExternalGroupingDirectory(@Nullable File externalGroupingDirectory) {
+        this.externalGroupingDirectory = externalGroupingDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("traversalThreads", traversalThreads)
+                .add("hashRounds", Arrays.toString(hashRounds))
+                .add("partialHashTail", partialHashTail).add("hashThreads", hashThreads)
+                .add("rotationalHashThreads", rotationalHashThreads).add("physicalReadOrder", physicalReadOrder)
+                .add("pipelinedHashing", pipelinedHashing).add("readMode", readMode)
+                .add("hashAlgorithm", hashAlgorithm.getName()).add("hashCacheFile", hashCacheFile)
+                .add("directCompareMaxGroupSize", directCompareMaxGroupSize)
+                .add("externalGroupingMemory", externalGroupingMemory)
+                .add("externalGroupingDirectory", externalGroupingDirectory).toString();
+    }
+
+    /**
+     * The ways of reading the file content.
+     */
+    public enum ReadMode {
+
+        /**
+         * Read the content through an {@link java.io.InputStream} into a heap buffer.
+         */
+        STREAM,
+
+        /**
+         * Read the content through a {@link java.nio.channels.FileChannel} into a direct buffer.
+         */
+        CHANNEL,
+
+        /**
+         * Read the content of large files through memory mapped windows of a {@link java.nio.channels.FileChannel}
+         * (smaller files are read like in the {@link #CHANNEL} mode).
+         *
+         * <p>On some operating systems a mapped file cannot be deleted until the mapping is garbage collected.
+         */
+        MAPPED
+    }
+
+}
@@ -19,29 +19,60 @@ package gg.pistol.sweeper.core;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gg.pistol.lumberjack.JackLogger;
 import gg.pistol.lumberjack.JackLoggerFactory;
 import gg.pistol.sweeper.core.Target.Type;
+import gg.pistol.sweeper.core.resource.PhysicalResourceFile;
 import gg.pistol.sweeper.core.resource.Resource;
+import gg.pistol.sweeper.core.resource.ResourceDevice;
 import gg.pistol.sweeper.core.resource.ResourceDirectory;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Analyzes a set of targets to find duplicates.
@@ -55,9 +86,22 @@ import java.util.concurrent.atomic.AtomicBoolean;
 // package private
 class Analyzer {
 
+    // How often the abort flag is checked while waiting for the hashing threads.
+    private static final long ABORT_CHECK_INTERVAL_MILLIS = 100;
+
+    private static final Comparator<TargetImpl> PRE_ORDER = new Comparator<TargetImpl>() {
+        public int compare(TargetImpl t1, TargetImpl t2) {
+            return Ints.compare(t1.getOrder(), t2.getOrder());
+        }
+    };
+
     private final JackLogger log;
 
-    private final HashFunction hashFunction;
+    private HashFunction hashFunction;
+
+    // The options configured by the user and the copy of them used by the current analysis.
+    private final AnalysisOptions configuredOptions;
+    private AnalysisOptions options;
 
     private boolean analyzing;
     private boolean deleting;
@@ -70,8 +114,15 @@ class Analyzer {
 
 
     Analyzer() throws SweeperException {
+        this(new AnalysisOptions());
+    }
+
+    Analyzer(AnalysisOptions options) throws SweeperException {
+        Preconditions.checkNotNull(options);
+        configuredOptions = options;
+        this.options = new AnalysisOptions(options);
         try {
-            hashFunction = new HashFunction();
+            hashFunction = new HashFunction(options.getHashAlgorithm(), options.getReadMode());
         } catch (NoSuchAlgorithmException e) {
             throw new SweeperException(e);
         }
@@ -95,21 +146,38 @@ class Analyzer {
         analyzing = true;
         deleting = false;
         abortAnalysis.set(false);
+        options = new AnalysisOptions(configuredOptions);
+        hashFunction = newHashFunction();
         OperationTrackingListener trackingListener = new OperationTrackingListener(listener);
 
         // The number of total targets (including the ROOT target) calculated at the beginning (before sizing the targets)
         // by traverseResources().
         MutableInteger totalTargets = new MutableInteger(0);
 
-        rootTarget = traverseResources(targetResources, totalTargets, trackingListener);
-        Collection<TargetImpl> sized = computeSize(rootTarget, totalTargets.intValue(), trackingListener);
-        Multimap<Long, TargetImpl> sizeDups = filterDuplicateSize(sized);
+        HashCache hashCache = loadHashCache();
+        HashPipeline pipeline = options.isPipelinedHashing() ? new HashPipeline(hashCache) : null;
+        Collection<TargetImpl> hashCandidates;
 
-        computeHash(sizeDups.values(), trackingListener);
-        Multimap<String, TargetImpl> hashDups = filterDuplicateHash(sizeDups.values());
+        // The files that are hard links to other files mapped to the files that represent them.
+        Map<TargetImpl, TargetImpl> hardLinks = new HashMap<TargetImpl, TargetImpl>();
+
+        // The duplicate groups found by comparing directly the content of the files (without hashing).
+        List<List<TargetImpl>> comparedDups = new ArrayList<List<TargetImpl>>();
+
+        try {
+            rootTarget = traverseResources(targetResources, totalTargets, pipeline, trackingListener);
+            computeSize(rootTarget, totalTargets.intValue(), trackingListener);
+            Multimap<Long, TargetImpl> sizeDups = filterDuplicateSize(rootTarget);
+            hashCandidates = computeHash(sizeDups, hashCache, pipeline, hardLinks, comparedDups, trackingListener);
+        } finally {
+            if (pipeline != null) {
+                pipeline.close();
+            }
+        }
+        Multimap<Fingerprint, TargetImpl> hashDups = filterDuplicateHash(hashCandidates);
 
-        count = computeCount(rootTarget, hashDups);
-        NavigableSet<DuplicateGroup> duplicates = createDuplicateGroups(hashDups);
+        count = computeCount(rootTarget, hashDups, comparedDups, hardLinks.keySet());
+        NavigableSet<DuplicateGroup> duplicates = createDuplicateGroups(hashDups, comparedDups);
         analyzing = false;
         return duplicates;
     }
@@ -120,25 +188,34 @@ class Analyzer {
      * @return a root target that wraps the {@code targetResources}</code>
      */
     private TargetImpl traverseResources(Collection<? extends Resource> targetResources, MutableInteger totalTargets,
+                                         @Nullable HashPipeline pipeline,
                                          OperationTrackingListener listener) throws SweeperAbortException {
         log.trace("Traversing the resources.");
         listener.updateOperation(SweeperOperation.RESOURCE_TRAVERSING);
         TargetImpl root = new TargetImpl(new LinkedHashSet<Resource>(targetResources));
         totalTargets.setValue(1);
 
-        int expandedTargets = expand(root.getChildren(), listener);
+        int expandedTargets = expand(root.getChildren(), pipeline, listener);
         totalTargets.add(expandedTargets);
 
+        // The pipelined hashing updates the nodes of the table, it needs to finish before the table is compacted.
+        if (pipeline != null) {
+            pipeline.finish();
+        }
+        // The compaction numbers the targets in pre-order, the ancestry of two targets is then checked by
+        // TargetImpl.isAncestorOf() with integer comparisons instead of walking the parents.
+        TargetTable table = root.getTable().compact();
+
         listener.operationCompleted();
-        return root;
+        return table.getTarget(TargetTable.ROOT);
     }
 
     /**
      * Expand recursively.
      *
      * <p>This method has side effects: if there is an expanded target equal to any of the {@code rootChildren} then that root
-     * child will be removed from the {@code rootChildren} collection. This is done to prevent a target from having
-     * multiple parents.
+     * child will be {@link TargetImpl#detach detached} from the tree of targets. This is done to prevent a target from
+     * having multiple parents.
      *
      * <p>Example of multiple parent situation: supposing that {@link #analyze} is called with the resource arguments
      * "res1" and "res2", it could be the case that res2 is a descendant of res1:
@@ -150,12 +227,22 @@ class Analyzer {
      * </code></pre>
      *
      * In this case res2 has two parents: root and dir, to prevent this from happening the "root---res2" child is
-     * removed.
+     * detached.
+     *
+     * <p>The discovered files are added to the {@code pipeline} (in case it is enabled).
      *
      * @return the number of traversed children targets
      */
-    private int expand(Collection<TargetImpl> rootChildren, OperationTrackingListener listener) throws SweeperAbortException {
-        Set<TargetImpl> rootChildrenSet = new HashSet<TargetImpl>(rootChildren);
+    private int expand(Collection<TargetImpl> rootChildren, @Nullable HashPipeline pipeline,
+                       OperationTrackingListener listener) throws SweeperAbortException {
+        if (options.getTraversalThreads() > 1) {
+            return expandConcurrently(rootChildren, pipeline, listener);
+        }
+
+        Map<TargetImpl, TargetImpl> rootChildrenMap = new HashMap<TargetImpl, TargetImpl>();
+        for (TargetImpl rootChild : rootChildren) {
+            rootChildrenMap.put(rootChild, rootChild);
+        }
         Deque<TargetImpl> stack = new LinkedList<TargetImpl>();
         stack.addAll(rootChildren);
         int targetCount = 0;
@@ -170,12 +257,15 @@ class Analyzer {
                     stack.push(t);
                 } else {
                     targetCount++;
+                    if (pipeline != null) {
+                        pipeline.add(t, listener);
+                    }
                 }
 
                 // resolve the multiple parent situations
-                if (rootChildrenSet.contains(t)) {
-                    rootChildrenSet.remove(t);
-                    rootChildren.remove(t);
+                TargetImpl rootChild = rootChildrenMap.remove(t);
+                if (rootChild != null) {
+                    rootChild.detach();
                 }
             }
             checkAbortFlag();
@@ -183,6 +273,231 @@ class Analyzer {
         return targetCount;
     }
 
+    /**
+     * Expand recursively like {@link #expand} by listing the sibling directories concurrently in a work stealing
+     * {@link ForkJoinPool}.
+     *
+     * @return the number of traversed children targets
+     */
+    private int expandConcurrently(Collection<TargetImpl> rootChildren, @Nullable HashPipeline pipeline,
+                                   OperationTrackingListener listener) throws SweeperAbortException {
+        Set<TargetImpl> rootChildrenSet = new HashSet<TargetImpl>(rootChildren);
+
+        // The root children found as descendants of other targets.
+        Set<TargetImpl> descendantRootChildren = Collections.newSetFromMap(new ConcurrentHashMap<TargetImpl, Boolean>());
+
+        List<ExpandTask> tasks = new ArrayList<ExpandTask>();
+        for (TargetImpl target : rootChildren) {
+            tasks.add(new ExpandTask(target, rootChildrenSet, descendantRootChildren, pipeline, listener));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(options.getTraversalThreads());
+        int targetCount = 0;
+        try {
+            for (ExpandTask task : tasks) {
+                pool.execute(task);
+            }
+            for (ExpandTask task : tasks) {
+                targetCount += task.join();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        checkAbortFlag();
+
+        // resolve the multiple parent situations
+        for (TargetImpl rootChild : rootChildren) {
+            if (descendantRootChildren.contains(rootChild)) {
+                rootChild.detach();
+            }
+        }
+        return targetCount;
+    }
+
+    /**
+     * Task that expands a target and forks the expansion of its sub-directories.
+     */
+    private class ExpandTask extends RecursiveTask<Integer> {
+
+        private final TargetImpl target;
+        private final Set<TargetImpl> rootChildren; // read-only
+        private final Set<TargetImpl> descendantRootChildren;
+        @Nullable private final HashPipeline pipeline;
+        private final OperationTrackingListener listener;
+
+        ExpandTask(TargetImpl target, Set<TargetImpl> rootChildren, Set<TargetImpl> descendantRootChildren,
+                   @Nullable HashPipeline pipeline, OperationTrackingListener listener) {
+            this.target = target;
+            this.rootChildren = rootChildren;
+            this.descendantRootChildren = descendantRootChildren;
+            this.pipeline = pipeline;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Integer compute() {
+            // On abort the traversal is stopped and the abort is signaled by checkAbortFlag() after the pool finishes.
+            if (abortAnalysis.get()) {
+                return 0;
+            }
+            target.expand(listener);
+            int targetCount = 1;
+
+            List<ExpandTask> subtasks = new ArrayList<ExpandTask>();
+            for (TargetImpl t : target.getChildren()) {
+                if (t.getType() != Type.FILE) {
+                    subtasks.add(new ExpandTask(t, rootChildren, descendantRootChildren, pipeline, listener));
+                } else {
+                    targetCount++;
+                    if (pipeline != null) {
+                        pipeline.add(t, listener);
+                    }
+                }
+
+                if (rootChildren.contains(t)) {
+                    descendantRootChildren.add(t);
+                }
+            }
+
+            invokeAll(subtasks);
+            for (ExpandTask subtask : subtasks) {
+                targetCount += subtask.getRawResult();
+            }
+            return targetCount;
+        }
+    }
+
+    /**
+     * Hashes the files while the resources are still being traversed. The discovered files are sized and indexed by
+     * size, as soon as a size is shared by two files both of them are queued for hashing and any further file with
+     * that size is queued directly. The queued files are hashed in the background with the first hash round (or
+     * completely in case the hash rounds are disabled), the later stages of the analysis continue from there.
+     *
+     * <p>The reading of the content overlaps with the traversal of the file system metadata.
+     */
+    @ThreadSafe
+    private class HashPipeline {
+
+        // The first file of each size, replaced with null after the file is queued.
+        private final ConcurrentMap<Long, AtomicReference<TargetImpl>> sizeIndex =
+                new ConcurrentHashMap<Long, AtomicReference<TargetImpl>>();
+
+        private final ExecutorService executor;
+        private final ThreadLocal<HashFunction> hashFunctions;
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+        @Nullable private final HashCache hashCache;
+
+        // The hashing happens in the background while the tracking listener of the analysis can be between operations,
+        // so the exceptions are collected with a separate listener and reported by finish().
+        private final OperationTrackingListener listener;
+        private final List<Map.Entry<Target, SweeperException>> exceptions =
+                Collections.synchronizedList(new ArrayList<Map.Entry<Target, SweeperException>>());
+
+        HashPipeline(@Nullable HashCache hashCache) {
+            this.hashCache = hashCache;
+            executor = Executors.newFixedThreadPool(options.getHashThreads(),
+                    new ThreadFactoryBuilder().setNameFormat("sweeper-pipeline-%d").setDaemon(true).build());
+            hashFunctions = new ThreadLocal<HashFunction>() {
+                @Override
+                protected HashFunction initialValue() {
+                    return newHashFunction();
+                }
+            };
+            listener = new OperationTrackingListener(new SweeperOperationListener() {
+                public void updateOperation(SweeperOperation operation) { /* ignore */ }
+
+                public void updateOperationProgress(long progress, long maxProgress, int percentGlobal) { /* ignore */ }
+
+                public void updateTarget(Target target) { /* ignore */ }
+
+                public void updateException(Target target, SweeperException e) {
+                    exceptions.add(Maps.immutableEntry(target, e));
+                }
+            });
+            listener.updateOperation(SweeperOperation.HASH_COMPUTATION);
+        }
+
+        /**
+         * Add a discovered file.
+         */
+        void add(TargetImpl file, OperationTrackingListener trackingListener) {
+            file.computeSize(trackingListener);
+            if (!file.isSized()) {
+                return;
+            }
+            AtomicReference<TargetImpl> first = sizeIndex.putIfAbsent(file.getSize(),
+                    new AtomicReference<TargetImpl>(file));
+            if (first == null) {
+                return;
+            }
+            TargetImpl firstFile = first.getAndSet(null);
+            if (firstFile != null) {
+                queue(firstFile);
+            }
+            queue(file);
+        }
+
+        private void queue(final TargetImpl file) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (abortAnalysis.get() || failure.get() != null) {
+                        return;
+                    }
+                    try {
+                        long[] rounds = options.getHashRounds();
+                        if (rounds.length > 0) {
+                            file.computeHashRound(hashFunctions.get(), hashCache, rounds[0],
+                                    options.isPartialHashTail(), listener, abortAnalysis);
+                        } else {
+                            file.computeHash(hashFunctions.get(), hashCache, listener, abortAnalysis);
+                        }
+                    } catch (SweeperAbortException e) {
+                        // the abort is signaled by checkAbortFlag()
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Wait for the queued files to be hashed.
+         */
+        void finish() throws SweeperAbortException {
+            log.trace("Waiting for the pipelined hashing of {} sizes.", sizeIndex.size());
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(ABORT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkAbortFlag();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SweeperAbortException();
+            }
+            checkAbortFlag();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        /**
+         * Report the exceptions of the hashed files to the {@code trackingListener}.
+         */
+        void reportExceptions(OperationTrackingListener trackingListener) {
+            for (Map.Entry<Target, SweeperException> entry : exceptions) {
+                trackingListener.updateException(entry.getKey(), entry.getValue());
+            }
+        }
+
+        /**
+         * Stop the hashing in case the pipeline did not finish.
+         */
+        void close() {
+            executor.shutdownNow();
+        }
+    }
+
     // package private for testing
     void checkAbortFlag() throws SweeperAbortException {
         if (analyzing && abortAnalysis.get()) {
@@ -199,27 +514,24 @@ class Analyzer {
      * Compute the size recursively with progress indication (the maximum progress is specified by
      * the {@code totalTargets} parameter).
      *
-     * @return the collection of all the targets with computed size traversed from the {@code root}
+     * <p>The nodes of the table are visited in the decreasing order of their pre-order numbers (a bottom-up traversal),
+     * the targets are created only for the duration of the visit.
      */
-    private Collection<TargetImpl> computeSize(TargetImpl root, int totalTargets,
-                                               final OperationTrackingListener listener) throws SweeperAbortException {
+    private void computeSize(TargetImpl root, int totalTargets, OperationTrackingListener listener)
+            throws SweeperAbortException {
         log.trace("Computing the size for {} that has <{}> total sub-targets.", root, totalTargets);
-        final Collection<TargetImpl> ret = new ArrayList<TargetImpl>();
         listener.updateOperation(SweeperOperation.SIZE_COMPUTATION);
         listener.setOperationMaxProgress(totalTargets);
 
-        traverseBottomUp(Collections.singleton(root), new TargetVisitorMethod() {
-            public void visit(TargetImpl target, int targetIndex) {
-                target.computeSize(listener);
-                if (target.isSized()) {
-                    ret.add(target);
-                }
-                listener.incrementOperationProgress(targetIndex);
-            }
-        });
+        TargetTable table = root.getTable();
+        int targetIndex = 1;
+        for (int id = root.getLastDescendantOrder(); id >= root.getOrder(); id--) {
+            table.getTarget(id).computeSize(listener);
+            listener.incrementOperationProgress(targetIndex++);
+            checkAbortFlag();
+        }
 
         listener.operationCompleted();
-        return ret;
     }
 
     /*
@@ -265,20 +577,115 @@ class Analyzer {
      *
      * @return a multimap with sizes as keys and the targets with that same size as values for the key
      */
-    private Multimap<Long, TargetImpl> filterDuplicateSize(Collection<TargetImpl> list) throws SweeperAbortException {
+    private Multimap<Long, TargetImpl> filterDuplicateSize(final TargetImpl root) throws SweeperAbortException {
         log.trace("Deduplicating the size.");
+        final TargetTable table = root.getTable();
+        final int last = root.getLastDescendantOrder();
+
+        // Only the sizes of the candidates are collected and sorted (instead of the targets or of a multimap indexing
+        // every target by its boxed size), because most of the sizes are unique. The targets are created afterwards
+        // only for the sizes shared by more than one candidate.
+        long[] sizes = new long[last];
+        int length = 0;
+        for (int id = last; id > root.getOrder(); id--) {
+            TargetImpl target = table.getTarget(id);
+            if (isSizeCandidate(target)) {
+                sizes[length++] = target.getSize();
+            }
+            checkAbortFlag();
+        }
+
+        if (isExternalGrouping(length, ExternalGrouper.SIZE_CODEC)) {
+            // The candidates are created one at a time while the records are written to the runs.
+            Iterator<TargetImpl> candidates = new AbstractIterator<TargetImpl>() {
+                private int id = last;
+
+                @Override
+                protected TargetImpl computeNext() {
+                    for (; id > root.getOrder(); id--) {
+                        TargetImpl target = table.getTarget(id);
+                        if (isSizeCandidate(target)) {
+                            id--;
+                            return target;
+                        }
+                    }
+                    return endOfData();
+                }
+            };
+            Multimap<Long, TargetImpl> sizeDups = groupExternally(table, candidates, new Function<TargetImpl, Long>() {
+                public Long apply(TargetImpl input) {
+                    return input.getSize();
+                }
+            }, ExternalGrouper.SIZE_CODEC);
+            if (sizeDups != null) {
+                return sizeDups;
+            }
+        }
 
-        Multimap<Long, TargetImpl> sizeDups = filterDuplicates(list, new Function<TargetImpl, Long>() {
-            @Nullable
-            public Long apply(TargetImpl input) {
-                // all the null return values will be ignored
-                return input.getType() != Target.Type.ROOT ? input.getSize() : null;
+        Arrays.sort(sizes, 0, length);
+        checkAbortFlag();
+        int dupLength = 0;
+        for (int i = 1; i < length; i++) {
+            if (sizes[i] == sizes[i - 1] && (dupLength == 0 || sizes[dupLength - 1] != sizes[i])) {
+                sizes[dupLength++] = sizes[i];
             }
-        });
+        }
 
+        // The targets are visited bottom-up, so the targets of a size are in the same order as the bottom-up traversal.
+        Multimap<Long, TargetImpl> sizeDups = ArrayListMultimap.create();
+        for (int id = last; id > root.getOrder() && dupLength > 0; id--) {
+            TargetImpl target = table.getTarget(id);
+            if (isSizeCandidate(target) && Arrays.binarySearch(sizes, 0, dupLength, target.getSize()) >= 0) {
+                sizeDups.put(target.getSize(), target);
+            }
+            checkAbortFlag();
+        }
         return sizeDups;
     }
 
+    private static boolean isSizeCandidate(TargetImpl target) {
+        return target.isSized() && !isSingleChild(target);
+    }
+
+    /**
+     * Check whether the estimated memory of grouping the targets in memory exceeds the threshold of the grouping on
+     * disk. The grouping in memory holds an entry with the key for every target, which costs about as much as
+     * a record of the {@code codec}.
+     */
+    private boolean isExternalGrouping(int targetCount, ExternalGrouper.KeyCodec<?> codec) {
+        long threshold = options.getExternalGroupingMemory();
+        return threshold > 0 && (long) targetCount * codec.getRecordMemory() > threshold;
+    }
+
+    /**
+     * Group the targets by key on disk with the {@link ExternalGrouper} (the targets with a {@code null} key are
+     * ignored). The grouper hands over the groups one at a time and only the groups are kept (for the next phases of
+     * the analysis).
+     *
+     * @return a multimap with the keys shared by more than one target and the targets with that key as values for the
+     *         key or {@code null} in case the temporary files could not be used
+     */
+    @Nullable
+    private <K extends Comparable<? super K>> Multimap<K, TargetImpl> groupExternally(TargetTable table,
+            Iterator<TargetImpl> targets, Function<TargetImpl, K> keyFunction, ExternalGrouper.KeyCodec<K> codec)
+            throws SweeperAbortException {
+        log.trace("Grouping the targets on disk in runs of {} records.", ExternalGrouper.getRunLength(codec));
+        ExternalGrouper<K> grouper = new ExternalGrouper<K>(keyFunction, codec, options.getExternalGroupingDirectory(),
+                abortAnalysis);
+        final Multimap<K, TargetImpl> ret = ArrayListMultimap.create();
+        try {
+            grouper.group(table, targets, new ExternalGrouper.GroupHandler<K>() {
+                public void group(K key, List<TargetImpl> group) {
+                    ret.putAll(key, group);
+                }
+            });
+            return ret;
+        } catch (IOException e) {
+            log.warn("Grouping the targets in memory because the temporary files could not be used.", e);
+            return null;
+        }
+    }
+
     /**
      * Select all the duplicates from the targets based on a criteria function.
      * If the function returns the same value for two input targets then those targets are considered duplicates (in
@@ -317,7 +724,7 @@ class Analyzer {
             // the child's content.
             Collection<TargetImpl> values = new ArrayList<TargetImpl>();
             for (TargetImpl target : collection) {
-                if (target.getParent() == null || target.getParent().getChildren().size() > 1) {
+                if (!isSingleChild(target)) {
                     values.add(target);
                 }
             }
@@ -329,79 +736,565 @@ class Analyzer {
         return ret;
     }
 
+    // The targets that are a single child of a directory are not duplicate candidates, the directory represents them
+    // (only if it is sized, e.g. not a directory with excluded entries).
+    private static boolean isSingleChild(TargetImpl target) {
+        TargetImpl parent = target.getParent();
+        return parent != null && parent.getChildCount() == 1 && parent.isSized();
+    }
+
     /**
-     * Compute the hash recursively for the specified targets.
+     * Compute the hash recursively for the targets that have the same size. Before computing the full hash the files
+     * are filtered by the hash rounds (if enabled by the {@link AnalysisOptions}).
+     *
+     * <p>The files that are hard links to other files from the same size group are removed from the candidates and
+     * added to the {@code hardLinks}. The hard links that need to be hashed as descendants of directories reuse the
+     * hash of the files they link to.
+     *
+     * <p>The small groups of files selected for direct comparison (if enabled by the {@link AnalysisOptions}) are not
+     * hashed, the duplicates found by comparing them are added to the {@code comparedDups}.
+     *
+     * <p>The hashing continues from the files hashed by the {@code pipeline} during the traversal (if enabled), the
+     * exceptions of the pipeline are reported here.
+     *
+     * @return the targets that are still candidates for duplication after the hash rounds filtering
      */
-    private void computeHash(Collection<TargetImpl> targets, final OperationTrackingListener listener)
-            throws SweeperAbortException {
-        log.trace("Computing the hash for {} targets.", targets.size());
+    private Collection<TargetImpl> computeHash(Multimap<Long, TargetImpl> sizeDups, @Nullable final HashCache hashCache,
+                                               @Nullable HashPipeline pipeline, Map<TargetImpl, TargetImpl> hardLinks,
+                                               List<List<TargetImpl>> comparedDups,
+                                               final OperationTrackingListener listener) throws SweeperAbortException {
         listener.updateOperation(SweeperOperation.HASH_COMPUTATION);
+        if (pipeline != null) {
+            pipeline.reportExceptions(listener);
+        }
+        sizeDups = collapseHardLinks(sizeDups, hardLinks);
+
+        List<List<TargetImpl>> compareGroups = new ArrayList<List<TargetImpl>>();
+        if (options.getDirectCompareMaxGroupSize() > 1) {
+            sizeDups = selectCompareGroups(sizeDups, compareGroups);
+        }
+
+        // The progress is tracked in bytes hashed by the rounds and by the full hash computation. The max progress
+        // is set before the rounds, so the bytes of the candidates dropped by the rounds are skipped afterwards.
+        final AtomicLong currentSize = new AtomicLong();
+        boolean hashRounds = options.getHashRounds().length > 0;
+        Collection<TargetImpl> candidates = sizeDups.values();
+        long maxHashSize = 0;
+        if (hashRounds) {
+            maxHashSize = getTotalHashSize(filterUpperTargets(candidates), compareGroups);
+            candidates = filterDuplicateHashRounds(sizeDups, hashCache, maxHashSize, listener, currentSize);
+        }
+        log.trace("Computing the hash for {} targets.", candidates.size());
 
         // Filter the targets that are not the children of other targets. All the children targets will have the hash
         // computed recursively from the parent target.
-        targets = filterUpperTargets(targets);
+        Collection<TargetImpl> targets = filterUpperTargets(candidates);
+        long totalHashSize = getTotalHashSize(targets, compareGroups);
+        if (hashRounds) {
+            listener.incrementOperationProgress(currentSize.addAndGet(maxHashSize - totalHashSize));
+        } else {
+            listener.setOperationMaxProgress(totalHashSize);
+        }
 
-        // Compute the total size of the targets to hash for progress tracking purposes.
-        long totalHashSize = 0;
-        for (TargetImpl target : targets) {
-            totalHashSize += target.getSize();
+        ContentComparator comparator = new ContentComparator();
+        for (List<TargetImpl> group : compareGroups) {
+            comparedDups.addAll(comparator.compare(group, listener, abortAnalysis, currentSize));
+        }
+
+        // Split the targets in bottom-up order: the files are hashed first (possibly concurrently) and afterwards
+        // the directories are hashed from the hashes of their children.
+        final List<TargetImpl> files = new ArrayList<TargetImpl>();
+        final List<TargetImpl> directories = new ArrayList<TargetImpl>();
+        traverseBottomUp(targets, new TargetVisitorMethod() {
+            public void visit(TargetImpl target, int targetIndex) {
+                if (target.getType() == Type.FILE) {
+                    files.add(target);
+                } else {
+                    directories.add(target);
+                }
+            }
+        });
+
+        // The hard links are not hashed in case the files they link to are hashed.
+        Set<TargetImpl> fileSet = new HashSet<TargetImpl>(files);
+        List<TargetImpl> links = new ArrayList<TargetImpl>();
+        for (Iterator<TargetImpl> it = files.iterator(); it.hasNext(); ) {
+            TargetImpl file = it.next();
+            TargetImpl linked = hardLinks.get(file);
+            // a link to a file compared directly (without a hash) is hashed by itself
+            if (linked != null && !linked.isContentCompared()
+                    && (linked.isPartiallyHashed() || fileSet.contains(linked))) {
+                links.add(file);
+                it.remove();
+            }
             checkAbortFlag();
         }
-        listener.setOperationMaxProgress(totalHashSize);
 
-        traverseBottomUp(targets, getHashVisitorMethod(listener));
+        hashFiles(files, new FileHashMethod() {
+            public void hash(TargetImpl target, HashFunction function) throws SweeperAbortException {
+                target.computeHash(function, hashCache, listener, abortAnalysis);
+
+                // Keep track of file sizes only as directories only re-hash the hash of their children which should be
+                // fast compared to reading I/O operations and hashing of potentially very large files.
+                listener.incrementOperationProgress(currentSize.addAndGet(target.getSize()));
+            }
+        });
+
+        for (TargetImpl link : links) {
+            link.copyHash(hardLinks.get(link), listener);
+            listener.incrementOperationProgress(currentSize.addAndGet(link.getSize()));
+        }
+
+        for (TargetImpl dir : directories) {
+            dir.computeHash(hashFunction, listener, abortAnalysis);
+            checkAbortFlag();
+        }
+        saveHashCache(hashCache);
         listener.operationCompleted();
+        return candidates;
     }
 
     /**
-     * Filter the targets that are not the children of other targets.
+     * Remove from the size groups the files that are hard links to other files of the same group (the files with the
+     * same {@link PhysicalResourceFile#getFileKey() file key}). Only one file from a set of hard links remains
+     * a duplicate candidate, the others are added to the {@code hardLinks} mapped to it. The groups left with a single
+     * target are dropped.
      *
-     * @return the collection of filtered targets
+     * @return the size groups without the hard links
      */
-    private Collection<TargetImpl> filterUpperTargets(Collection<TargetImpl> targets) throws SweeperAbortException {
-        Set<TargetImpl> set = new HashSet<TargetImpl>();
-        Collection<TargetImpl> ret = new ArrayList<TargetImpl>();
+    private Multimap<Long, TargetImpl> collapseHardLinks(Multimap<Long, TargetImpl> sizeDups,
+                                                         Map<TargetImpl, TargetImpl> hardLinks) throws SweeperAbortException {
+        Multimap<Long, TargetImpl> ret = ArrayListMultimap.create();
+        for (Long key : sizeDups.keySet()) {
+            Map<Object, TargetImpl> fileKeys = new HashMap<Object, TargetImpl>();
+            List<TargetImpl> group = new ArrayList<TargetImpl>();
+            for (TargetImpl target : sizeDups.get(key)) {
+                Object fileKey = null;
+                if (target.getResource() instanceof PhysicalResourceFile) {
+                    try {
+                        fileKey = ((PhysicalResourceFile) target.getResource()).getFileKey();
+                    } catch (IOException e) {
+                        // unknown file key, the hashing will report the I/O problems of the file
+                    }
+                }
 
-        for (TargetImpl target : targets) {
-            set.add(target);
+                TargetImpl linked = fileKey == null ? null : fileKeys.get(fileKey);
+                if (linked != null) {
+                    hardLinks.put(target, linked);
+                } else {
+                    if (fileKey != null) {
+                        fileKeys.put(fileKey, target);
+                    }
+                    group.add(target);
+                }
+                checkAbortFlag();
+            }
+            if (group.size() > 1) {
+                ret.putAll(key, group);
+            }
+        }
+        log.trace("Collapsed {} hard links.", hardLinks.size());
+        return ret;
+    }
+
+    /**
+     * Select the size groups that will be compared directly: the groups made only of files, having at most the number
+     * of files allowed by the {@link AnalysisOptions} and without any file being the descendant of a duplicate
+     * candidate (the hash of a directory is computed from the hashes of its children).
+     *
+     * @return the remaining size groups that will be hashed
+     */
+    private Multimap<Long, TargetImpl> selectCompareGroups(Multimap<Long, TargetImpl> sizeDups,
+                                                           List<List<TargetImpl>> compareGroups) throws SweeperAbortException {
+        // The candidates without any ancestor being a candidate.
+        Set<TargetImpl> upperCandidates = new HashSet<TargetImpl>(filterUpperTargets(sizeDups.values()));
+        Multimap<Long, TargetImpl> ret = ArrayListMultimap.create();
+
+        for (Long key : sizeDups.keySet()) {
+            Collection<TargetImpl> group = sizeDups.get(key);
+            boolean comparable = group.size() <= options.getDirectCompareMaxGroupSize();
+            for (Iterator<TargetImpl> it = group.iterator(); comparable && it.hasNext(); ) {
+                TargetImpl target = it.next();
+                comparable = target.getType() == Type.FILE && upperCandidates.contains(target);
+            }
+            if (comparable) {
+                compareGroups.add(new ArrayList<TargetImpl>(group));
+            } else {
+                ret.putAll(key, group);
+            }
+            checkAbortFlag();
+        }
+        log.trace("Selected {} groups for direct comparison.", compareGroups.size());
+        return ret;
+    }
+
+    /**
+     * Load the hash cache configured by the {@link AnalysisOptions}. A cache that cannot be read is discarded because
+     * the hashes can always be computed again.
+     *
+     * @return the hash cache or {@code null} in case it is disabled
+     */
+    @Nullable
+    private HashCache loadHashCache() {
+        File file = options.getHashCacheFile();
+        if (file == null) {
+            return null;
+        }
+        try {
+            HashCache cache = HashCache.load(file, options.getHashAlgorithm());
+            log.trace("Loaded {} entries from the hash cache <{}>.", cache.size(), file);
+            return cache;
+        } catch (IOException e) {
+            log.warn("Discarding the hash cache <" + file + "> because it could not be read.", e);
+            return new HashCache(file, options.getHashAlgorithm());
+        }
+    }
+
+    private void saveHashCache(@Nullable HashCache hashCache) {
+        if (hashCache == null) {
+            return;
+        }
+        try {
+            hashCache.save();
+        } catch (IOException e) {
+            log.warn("Could not save the hash cache <" + options.getHashCacheFile() + ">.", e);
+        }
+    }
+
+    /**
+     * Hash the {@code files} with the provided method. The files are queued per {@link ResourceDevice} and each device
+     * is read by its own workers: the number of workers is limited per device by the {@link AnalysisOptions}
+     * (typically a single sequential reader for rotational devices and more readers for solid state devices). Each
+     * worker has its own {@link HashFunction}.
+     *
+     * <p>With a single reader per device and without the physical read order the files are hashed sequentially in
+     * their order, without looking up their devices (a file system query for each file).
+     */
+    private void hashFiles(final List<TargetImpl> files, final FileHashMethod method) throws SweeperAbortException {
+        Map<ResourceDevice, List<TargetImpl>> queues;
+        if (options.getHashThreads() == 1 && options.getRotationalHashThreads() == 1
+                && !options.isPhysicalReadOrder()) {
+            queues = Collections.<ResourceDevice, List<TargetImpl>>singletonMap(null, files);
+        } else {
+            queues = groupByDevice(files);
+        }
+        int threads = 0;
+        for (Map.Entry<ResourceDevice, List<TargetImpl>> entry : queues.entrySet()) {
+            threads += getDeviceThreads(entry.getKey(), entry.getValue());
+        }
+
+        if (threads <= 1) {
+            for (List<TargetImpl> queue : queues.values()) {
+                for (TargetImpl file : queue) {
+                    method.hash(file, hashFunction);
+                    checkAbortFlag();
+                }
+            }
+            return;
+        }
+
+        log.trace("Hashing {} files from {} devices with {} threads.", new Object[]{files.size(), queues.size(), threads});
+        final AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("sweeper-hash-%d").setDaemon(true).build());
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (Map.Entry<ResourceDevice, List<TargetImpl>> entry : queues.entrySet()) {
+                final List<TargetImpl> queue = entry.getValue();
+                final AtomicInteger nextFile = new AtomicInteger();
+                Callable<Void> worker = new Callable<Void>() {
+                    public Void call() throws Exception {
+                        HashFunction function = newHashFunction();
+                        int i;
+                        while (!stop.get() && (i = nextFile.getAndIncrement()) < queue.size()) {
+                            method.hash(queue.get(i), function);
+                        }
+                        return null;
+                    }
+                };
+                for (int i = getDeviceThreads(entry.getKey(), queue); i > 0; i--) {
+                    futures.add(executor.submit(worker));
+                }
+            }
+            for (Future<Void> future : futures) {
+                waitFor(future);
+            }
+        } finally {
+            stop.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Group the files by their device preserving the order of the files, or sorting them in physical order if enabled
+     * by the {@link AnalysisOptions}. The files with an unknown device are grouped under the {@code null} key.
+     */
+    private Map<ResourceDevice, List<TargetImpl>> groupByDevice(List<TargetImpl> files) throws SweeperAbortException {
+        Map<ResourceDevice, List<TargetImpl>> ret = new LinkedHashMap<ResourceDevice, List<TargetImpl>>();
+        for (TargetImpl file : files) {
+            ResourceDevice device = null;
+            if (file.getResource() instanceof PhysicalResourceFile) {
+                try {
+                    device = ((PhysicalResourceFile) file.getResource()).getDevice();
+                } catch (IOException e) {
+                    // unknown device, the hashing will report the I/O problems of the file
+                }
+            }
+            List<TargetImpl> queue = ret.get(device);
+            if (queue == null) {
+                queue = new ArrayList<TargetImpl>();
+                ret.put(device, queue);
+            }
+            queue.add(file);
             checkAbortFlag();
         }
+        if (options.isPhysicalReadOrder()) {
+            for (List<TargetImpl> queue : ret.values()) {
+                sortByPhysicalOrder(queue);
+            }
+        }
+        return ret;
+    }
+
+    private void sortByPhysicalOrder(List<TargetImpl> files) throws SweeperAbortException {
+        final Map<TargetImpl, Long> order = new HashMap<TargetImpl, Long>();
+        for (TargetImpl file : files) {
+            long value = 0;
+            if (file.getResource() instanceof PhysicalResourceFile) {
+                try {
+                    value = ((PhysicalResourceFile) file.getResource()).getPhysicalOrder();
+                } catch (IOException e) {
+                    // unknown order, the hashing will report the I/O problems of the file
+                }
+            }
+            order.put(file, value);
+            checkAbortFlag();
+        }
+        Collections.sort(files, new Comparator<TargetImpl>() {
+            public int compare(TargetImpl first, TargetImpl second) {
+                return Longs.compare(order.get(first), order.get(second));
+            }
+        });
+    }
+
+    private int getDeviceThreads(@Nullable ResourceDevice device, List<TargetImpl> queue) {
+        int threads = device != null && device.isRotational() ? options.getRotationalHashThreads()
+                : options.getHashThreads();
+        return Math.min(threads, queue.size());
+    }
+
+    /**
+     * Create a hash function configured with the current options.
+     */
+    private HashFunction newHashFunction() {
+        try {
+            return new HashFunction(options.getHashAlgorithm(), options.getReadMode());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("The hash algorithm <" + options.getHashAlgorithm().getName()
+                    + "> is not available", e);
+        }
+    }
 
+    /**
+     * Wait for the {@code future} to complete while periodically checking the abort flag.
+     */
+    private void waitFor(Future<?> future) throws SweeperAbortException {
+        while (true) {
+            checkAbortFlag();
+            try {
+                future.get(ABORT_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // check again the abort flag
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SweeperAbortException();
+            } catch (ExecutionException e) {
+                Throwables.propagateIfInstanceOf(e.getCause(), SweeperAbortException.class);
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compute the total size of the {@code targets} and of the {@code compareGroups} to hash for progress tracking
+     * purposes.
+     */
+    private long getTotalHashSize(Collection<TargetImpl> targets, List<List<TargetImpl>> compareGroups)
+            throws SweeperAbortException {
+        long ret = 0;
         for (TargetImpl target : targets) {
-            TargetImpl parent = target;
+            ret += target.getSize();
+            checkAbortFlag();
+        }
+        for (List<TargetImpl> group : compareGroups) {
+            ret += group.size() * group.get(0).getSize();
+        }
+        return ret;
+    }
 
-            boolean isUpper = true;
-            while ((parent = parent.getParent()) != null) {
-                if (set.contains(parent)) {
-                    isUpper = false;
+    /**
+     * Select the targets that remain duplicate candidates after hashing progressively the files with the same size in
+     * the rounds configured by the {@link AnalysisOptions}. After each round the groups of files are split by the hash
+     * of their prefix and the files that become unique are dropped.
+     *
+     * <p>The size groups that contain directories are kept entirely because the hash of a directory can only be
+     * computed from the full hashes of its children, so it cannot be compared with the partial hash of a file.
+     * For the same reason a group that contains files with the full hash found in the hash cache is no longer refined.
+     *
+     * <p>The max progress of the operation is set to the bytes of all the rounds and the {@code maxHashSize} of the
+     * full hash computation. The progress of the rounds is added to the {@code currentSize}, including the bytes of
+     * the files dropped by the previous rounds.
+     *
+     * @return the remaining duplicate candidates
+     */
+    private Collection<TargetImpl> filterDuplicateHashRounds(Multimap<Long, TargetImpl> sizeDups,
+                                                             @Nullable final HashCache hashCache, long maxHashSize,
+                                                             final OperationTrackingListener listener,
+                                                             final AtomicLong currentSize) throws SweeperAbortException {
+        log.trace("Deduplicating with hash rounds {} targets.", sizeDups.size());
+        Collection<TargetImpl> ret = new ArrayList<TargetImpl>();
+        List<Collection<TargetImpl>> groups = new ArrayList<Collection<TargetImpl>>();
+
+        for (Long key : sizeDups.keySet()) {
+            Collection<TargetImpl> group = sizeDups.get(key);
+            boolean onlyFiles = true;
+            for (TargetImpl target : group) {
+                if (target.getType() != Type.FILE) {
+                    onlyFiles = false;
                     break;
                 }
             }
-            if (isUpper) {
-                ret.add(target);
+            if (onlyFiles) {
+                groups.add(group);
+            } else {
+                ret.addAll(group);
             }
+            checkAbortFlag();
+        }
 
+        long[] rounds = options.getHashRounds();
+        long[] roundHashSizes = new long[rounds.length];
+        long roundsHashSize = 0;
+        for (int i = 0; i < rounds.length; i++) {
+            long coveredSize = getCoveredSize(rounds, i);
+            for (Collection<TargetImpl> group : groups) {
+                for (TargetImpl target : group) {
+                    roundHashSizes[i] += Math.min(target.getSize(), coveredSize);
+                }
+            }
+            roundsHashSize += roundHashSizes[i];
             checkAbortFlag();
         }
+        listener.setOperationMaxProgress(roundsHashSize + maxHashSize);
+
+        long roundsProgress = 0;
+        for (int i = 0; i < rounds.length && !groups.isEmpty(); i++) {
+            final long roundSize = rounds[i];
+            final boolean tail = i == 0 && options.isPartialHashTail();
+            final long coveredSize = getCoveredSize(rounds, i);
+            List<TargetImpl> files = new ArrayList<TargetImpl>();
+            for (Collection<TargetImpl> group : groups) {
+                files.addAll(group);
+            }
+            log.trace("Hash round of {} bytes for {} files.", roundSize, files.size());
+            hashFiles(files, new FileHashMethod() {
+                public void hash(TargetImpl target, HashFunction function) throws SweeperAbortException {
+                    target.computeHashRound(function, hashCache, roundSize, tail, listener, abortAnalysis);
+                    listener.incrementOperationProgress(currentSize.addAndGet(Math.min(target.getSize(),
+                            coveredSize)));
+                }
+            });
+            groups = refineGroups(groups, ret);
 
+            // Skip the bytes of the files dropped by the previous rounds.
+            roundsProgress += roundHashSizes[i];
+            currentSize.set(roundsProgress);
+            listener.incrementOperationProgress(roundsProgress);
+        }
+        currentSize.set(roundsHashSize);
+        listener.incrementOperationProgress(roundsHashSize);
+
+        for (Collection<TargetImpl> group : groups) {
+            ret.addAll(group);
+        }
         return ret;
     }
 
-    private TargetVisitorMethod getHashVisitorMethod(final OperationTrackingListener listener) {
-        return new TargetVisitorMethod() {
-            long currentSize = 0;
+    /**
+     * Compute the size of the prefix (and of the tail in the first round) hashed in the round with the given
+     * {@code index}.
+     */
+    private long getCoveredSize(long[] rounds, int index) {
+        return index == 0 && options.isPartialHashTail() ? 2L * rounds[index] : rounds[index];
+    }
 
-            public void visit(TargetImpl target, int targetIndex) throws SweeperAbortException {
-                target.computeHash(hashFunction, listener, abortAnalysis);
+    /**
+     * Split the {@code groups} by the partial hash of the files. The groups that contain hashed files are no longer
+     * refined and they are added to the {@code hashed} collection.
+     *
+     * @return the groups that can be refined further
+     */
+    private List<Collection<TargetImpl>> refineGroups(List<Collection<TargetImpl>> groups,
+                                                      Collection<TargetImpl> hashed) throws SweeperAbortException {
+        List<Collection<TargetImpl>> ret = new ArrayList<Collection<TargetImpl>>();
+        for (Collection<TargetImpl> group : groups) {
+            boolean anyHashed = false;
+            for (TargetImpl target : group) {
+                if (target.isHashed()) {
+                    anyHashed = true;
+                    break;
+                }
+            }
+            if (anyHashed) {
+                hashed.addAll(group);
+                continue;
+            }
 
-                // Keep track of file sizes only as directories only re-hash the hash of their children which should be
-                // fast compared to reading I/O operations and hashing of potentially very large files.
-                if (target.getType() == Type.FILE) {
-                    currentSize += target.getSize();
-                    listener.incrementOperationProgress(currentSize);
+            Multimap<Fingerprint, TargetImpl> partialDups = filterDuplicates(group, new Function<TargetImpl, Fingerprint>() {
+                @Nullable
+                public Fingerprint apply(TargetImpl input) {
+                    // all the null return values will be ignored (also for content compared)
+                    return input.isPartiallyHashed() ? null : input.getPartialHash();
                 }
+            });
+            for (Fingerprint key : partialDups.keySet()) {
+                ret.add(partialDups.get(key));
             }
-        };
+            if (partialDups.size() < group.size()) {
+                Set<TargetImpl> candidates = new HashSet<TargetImpl>(partialDups.values());
+                for (TargetImpl target : group) {
+                    if (!candidates.contains(target)) {
+                        target.releaseHashRounds();
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Filter the targets that are not the children of other targets.
+     *
+     * @return the collection of filtered targets
+     */
+    private Collection<TargetImpl> filterUpperTargets(Collection<TargetImpl> targets) throws SweeperAbortException {
+        List<TargetImpl> sorted = new ArrayList<TargetImpl>(targets);
+        Collections.sort(sorted, PRE_ORDER);
+        Collection<TargetImpl> ret = new ArrayList<TargetImpl>();
+
+        // In pre-order the descendants of a target follow it, a target is upper when it is not a descendant of the
+        // last upper target.
+        TargetImpl upper = null;
+        for (TargetImpl target : sorted) {
+            if (upper == null || !upper.isAncestorOf(target)) {
+                ret.add(target);
+                upper = target;
+            }
+            checkAbortFlag();
+        }
+
+        return ret;
     }
 
     /**
@@ -409,22 +1302,39 @@ class Analyzer {
      *
      * @return a multimap with hashes as keys and duplicate targets as values for the key
      */
-    private Multimap<String, TargetImpl> filterDuplicateHash(Collection<TargetImpl> targets) throws SweeperAbortException {
+    private Multimap<Fingerprint, TargetImpl> filterDuplicateHash(Collection<TargetImpl> targets) throws SweeperAbortException {
         log.trace("Deduplicating the hash for {} targets.", targets.size());
 
-        Multimap<String, TargetImpl> hashDups = filterDuplicates(targets,
-                new Function<TargetImpl, String>() {
+        if (isExternalGrouping(targets.size(), ExternalGrouper.FINGERPRINT_CODEC)) {
+            Multimap<Fingerprint, TargetImpl> hashDups = groupExternally(rootTarget.getTable(), targets.iterator(),
+                    new Function<TargetImpl, Fingerprint>() {
+                        @Nullable
+                        public Fingerprint apply(TargetImpl input) {
+                            // all the null return values will be ignored
+                            return input.isHashed() && !input.isContentCompared() && !isSingleChild(input)
+                                    ? input.getHash() : null;
+                        }
+                    }, ExternalGrouper.FINGERPRINT_CODEC);
+            if (hashDups != null) {
+                return hashDups;
+            }
+        }
+
+        Multimap<Fingerprint, TargetImpl> hashDups = filterDuplicates(targets,
+                new Function<TargetImpl, Fingerprint>() {
                     @Nullable
-                    public String apply(TargetImpl input) {
+                    public Fingerprint apply(TargetImpl input) {
                         // all the null return values will be ignored
-                        return input.isHashed() ? input.getHash() : null;
+                        return input.isHashed() && !input.isContentCompared() ? input.getHash() : null;
                     }
                 });
 
         return hashDups;
     }
 
-    private SweeperCountImpl computeCount(TargetImpl root, Multimap<String, TargetImpl> hashDups) throws SweeperAbortException {
+    private SweeperCountImpl computeCount(TargetImpl root, Multimap<Fingerprint, TargetImpl> hashDups,
+                                          List<List<TargetImpl>> comparedDups,
+                                          Collection<TargetImpl> hardLinks) throws SweeperAbortException {
         log.trace("Counting {} hash duplicates.", hashDups.size());
 
         int totalTargets = root.getTotalTargets();
@@ -440,9 +1350,9 @@ class Analyzer {
         Collection<TargetImpl> hashDupUpperTargets = filterUpperTargets(hashDups.values());
 
         // Group the duplicate targets by hash.
-        Multimap<String, TargetImpl> dups = filterDuplicateHash(hashDupUpperTargets);
+        Multimap<Fingerprint, TargetImpl> dups = filterDuplicateHash(hashDupUpperTargets);
 
-        for (String key : dups.keySet()) {
+        for (Fingerprint key : dups.keySet()) {
             Iterator<TargetImpl> iterator = dups.get(key).iterator();
 
             // Jump over the first value from a duplicate group because deleting all the others will make this one
@@ -459,21 +1369,41 @@ class Analyzer {
             }
         }
 
+        // The directly compared files are not descendants of other duplicates.
+        for (List<TargetImpl> group : comparedDups) {
+            for (TargetImpl target : group.subList(1, group.size())) {
+                duplicateTargets++;
+                duplicateTargetFiles++;
+                duplicateSize += target.getSize();
+            }
+        }
+
         SweeperCountImpl count = new SweeperCountImpl(totalTargets, totalTargetFiles, totalSize, duplicateTargets,
                 duplicateTargetFiles, duplicateSize);
 
+        long hardLinkSize = 0;
+        for (TargetImpl link : hardLinks) {
+            hardLinkSize += link.getSize();
+        }
+        count.setHardLinkFiles(hardLinks.size());
+        count.setHardLinkSize(hardLinkSize);
+
         return count;
     }
 
-    private NavigableSet<DuplicateGroup> createDuplicateGroups(Multimap<String, TargetImpl> hashDups) {
+    private NavigableSet<DuplicateGroup> createDuplicateGroups(Multimap<Fingerprint, TargetImpl> hashDups,
+                                                               List<List<TargetImpl>> comparedDups) {
         log.trace("Duplicate grouping.");
 
         NavigableSet<DuplicateGroup> ret = new TreeSet<DuplicateGroup>();
-        for (String key : hashDups.keySet()) {
+        for (Fingerprint key : hashDups.keySet()) {
             Collection<TargetImpl> values = hashDups.get(key);
-            DuplicateGroup dup = new DuplicateGroup(values);
+            DuplicateGroup dup = new DuplicateGroup(values, hashFunction.getAlgorithm());
             ret.add(dup);
         }
+        for (List<TargetImpl> group : comparedDups) {
+            ret.add(new DuplicateGroup(group));
+        }
 
         return ret;
     }
@@ -584,4 +1514,12 @@ class Analyzer {
         void visit(TargetImpl target, int targetIndex) throws SweeperAbortException;
     }
 
+    /**
+     * Hashing method for file targets that uses the provided {@link HashFunction} (which is not shared with other
+     * threads).
+     */
+    private static interface FileHashMethod {
+        void hash(TargetImpl target, HashFunction hashFunction) throws SweeperAbortException;
+    }
+
 }
@@ -0,0 +1,227 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import gg.pistol.sweeper.core.resource.ResourceFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Finds the duplicates in a group of files with the same size by reading their content in lockstep and comparing it
+ * block by block, without computing any hash.
+ *
+ * <p>The group is split as soon as the files diverge and the files that become unique are no longer read, so in the
+ * worst case the content of each file is read only once. There is no risk of hash collisions.
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+class ContentComparator {
+
+    private static final int BLOCK_SIZE = 64 * (1 << 10); // 64 KB
+
+    /**
+     * Compare the content of the {@code files}.
+     *
+     * <p>The files found to be duplicates are marked with {@link TargetImpl#setContentCompared}. The files that cannot
+     * be read are reported to the {@code listener} and they are excluded from the comparison.
+     *
+     * @param files
+     *         the files to compare, all of them having the same size
+     * @param progress
+     *         the absolute progress of the operation that will be incremented with the size of each file
+     * @return the groups of duplicate files
+     */
+    List<List<TargetImpl>> compare(List<TargetImpl> files, OperationTrackingListener listener, AtomicBoolean abortFlag,
+                                   AtomicLong progress) throws SweeperAbortException {
+        Preconditions.checkNotNull(files);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(abortFlag);
+        Preconditions.checkNotNull(progress);
+        List<List<TargetImpl>> ret = new ArrayList<List<TargetImpl>>();
+        if (files.isEmpty()) {
+            return ret;
+        }
+        long size = files.get(0).getSize();
+
+        List<Member> members = new ArrayList<Member>();
+        try {
+            for (TargetImpl file : files) {
+                Preconditions.checkArgument(file.getType() == Target.Type.FILE, "Not a file");
+                Preconditions.checkArgument(file.getSize() == size, "The files have different sizes");
+                Member member = open(file, listener);
+                if (member == null) {
+                    listener.incrementOperationProgress(progress.addAndGet(size));
+                } else {
+                    members.add(member);
+                }
+            }
+
+            List<List<Member>> groups = new ArrayList<List<Member>>();
+            if (members.size() > 1) {
+                groups.add(members);
+            }
+            long offset = 0;
+            while (offset < size && !groups.isEmpty()) {
+                int length = (int) Math.min(BLOCK_SIZE, size - offset);
+                int openBefore = countOpen(members);
+                List<List<Member>> nextGroups = new ArrayList<List<Member>>();
+                for (List<Member> group : groups) {
+                    for (List<Member> split : readAndSplit(group, length, listener)) {
+                        if (split.size() > 1) {
+                            nextGroups.add(split);
+                        } else {
+                            split.get(0).close();
+                        }
+                    }
+                    if (abortFlag.get()) {
+                        throw new SweeperAbortException();
+                    }
+                }
+                offset += length;
+                groups = nextGroups;
+
+                // The remaining content of the files that are no longer read is accounted as progressed.
+                int closed = openBefore - countOpen(members);
+                listener.incrementOperationProgress(progress.addAndGet(openBefore * (long) length
+                        + closed * (size - offset)));
+            }
+
+            for (List<Member> group : groups) {
+                List<TargetImpl> duplicates = new ArrayList<TargetImpl>();
+                for (Member member : group) {
+                    member.target.setContentCompared(member.modificationDate);
+                    duplicates.add(member.target);
+                }
+                ret.add(duplicates);
+            }
+            if (groups.isEmpty() && offset == 0) {
+                // nothing was read
+                listener.incrementOperationProgress(progress.addAndGet(members.size() * size));
+            }
+        } finally {
+            for (Member member : members) {
+                member.close();
+            }
+        }
+        return ret;
+    }
+
+    private static int countOpen(List<Member> members) {
+        int ret = 0;
+        for (Member member : members) {
+            if (!member.closed) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    @Nullable
+    private Member open(TargetImpl file, OperationTrackingListener listener) {
+        listener.updateTarget(file);
+        try {
+            ResourceFile res = (ResourceFile) file.getResource();
+            DateTime modificationDate = res.getModificationDate();
+            return new Member(file, res.getInputStream(), modificationDate);
+        } catch (Exception e) {
+            file.setContentCompareFailed(e, listener);
+            return null;
+        }
+    }
+
+    /**
+     * Read the next block of {@code length} bytes of each member and split the group by the content of the block.
+     */
+    private List<List<Member>> readAndSplit(List<Member> group, int length, OperationTrackingListener listener) {
+        List<List<Member>> ret = new ArrayList<List<Member>>();
+        for (Member member : group) {
+            try {
+                ByteStreams.readFully(member.stream, member.block, 0, length);
+            } catch (IOException e) {
+                member.close();
+                member.target.setContentCompareFailed(e, listener);
+                continue;
+            }
+
+            List<Member> split = null;
+            for (List<Member> candidate : ret) {
+                if (equalBlocks(candidate.get(0).block, member.block, length)) {
+                    split = candidate;
+                    break;
+                }
+            }
+            if (split == null) {
+                split = new ArrayList<Member>();
+                ret.add(split);
+            }
+            split.add(member);
+        }
+        return ret;
+    }
+
+    private static boolean equalBlocks(byte[] first, byte[] second, int length) {
+        if (length == first.length) {
+            return Arrays.equals(first, second);
+        }
+        for (int i = 0; i < length; i++) {
+            if (first[i] != second[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static class Member {
+        private final TargetImpl target;
+        private final InputStream stream;
+        private final DateTime modificationDate;
+        private final byte[] block;
+        private boolean closed;
+
+        private Member(TargetImpl target, InputStream stream, DateTime modificationDate) {
+            this.target = target;
+            this.stream = stream;
+            this.modificationDate = modificationDate;
+            block = new byte[(int) Math.min(BLOCK_SIZE, target.getSize())];
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                Closeables.closeQuietly(stream);
+            }
+        }
+    }
+
+}
@@ -38,29 +38,55 @@ class DuplicateGroup implements Comparable<DuplicateGroup> {
 
     private final long size;
 
-    private final String hash;
+    @Nullable private final Fingerprint hash;
 
+    // The name of the algorithm that computed the hash.
+    @Nullable private final String hashAlgorithm;
 
+    // The name of the first target identifies a group without hash (a target belongs to only one group).
+    @Nullable private final String firstTarget;
+
+
+    /**
+     * Create a group of targets that have the same hash computed with the {@code algorithm}.
+     */
+    DuplicateGroup(Collection<TargetImpl> collection, HashAlgorithm algorithm) {
+        this(collection, Preconditions.checkNotNull(algorithm).getName());
+    }
+
+    /**
+     * Create a group of files whose content was compared directly, the group has no hash.
+     */
     DuplicateGroup(Collection<TargetImpl> collection) {
+        this(collection, (String) null);
+    }
+
+    private DuplicateGroup(Collection<TargetImpl> collection, @Nullable String algorithm) {
         Preconditions.checkNotNull(collection);
         Preconditions.checkArgument(!collection.isEmpty());
 
-        String hashValue = null;
-        long sizeValue = -1;
+        Fingerprint hashValue = null;
+        TargetImpl first = null;
 
         for (TargetImpl target : collection) {
             Preconditions.checkArgument(target.isHashed());
-            if (hashValue == null) {
-                hashValue = target.getHash();
-                sizeValue = target.getSize();
+            Preconditions.checkArgument(target.isContentCompared() == (algorithm == null));
+            if (first == null) {
+                first = target;
+                hashValue = algorithm == null ? null : target.getHash();
             }
-            Preconditions.checkArgument(hashValue.equals(target.getHash()));
-            Preconditions.checkArgument(sizeValue == target.getSize());
+            if (first.getName().compareTo(target.getName()) > 0) {
+                first = target;
+            }
+            Preconditions.checkArgument(algorithm == null || target.getHash().equals(hashValue));
+            Preconditions.checkArgument(first.getSize() == target.getSize());
         }
 
         targets = collection;
         hash = hashValue;
-        size = sizeValue;
+        size = first.getSize();
+        hashAlgorithm = algorithm;
+        firstTarget = algorithm == null ? first.getName() : null;
     }
 
     Collection<? extends Target> getTargets() {
@@ -71,22 +97,35 @@ class DuplicateGroup implements Comparable<DuplicateGroup> {
         return size;
     }
 
-    String getHash() {
+    /**
+     * Getter for the hash of the targets.
+     *
+     * @return the hash or {@code null} in case the content was compared directly
+     */
+    @Nullable
+    Fingerprint getHash() {
         return hash;
     }
 
+    @Nullable
+    String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
     /**
      * Order descending by size.
      */
     public int compareTo(DuplicateGroup other) {
         Preconditions.checkNotNull(other);
         return ComparisonChain.start().compare(size, other.getSize(), Ordering.natural().reverse())
-                .compare(hash, other.hash).result();
+                .compare(hash, other.hash, Ordering.natural().nullsFirst())
+                .compare(hashAlgorithm, other.hashAlgorithm, Ordering.natural().nullsFirst())
+                .compare(firstTarget, other.firstTarget, Ordering.natural().nullsFirst()).result();
     }
 
     @Override
     public int hashCode() {
-        return hash.hashCode();
+        return Objects.hashCode(hash, firstTarget);
     }
 
     @Override
@@ -95,12 +134,14 @@ class DuplicateGroup implements Comparable<DuplicateGroup> {
             return false;
         }
         DuplicateGroup other = (DuplicateGroup) obj;
-        return hash.equals(other.hash);
+        return Objects.equal(hash, other.hash) && Objects.equal(hashAlgorithm, other.hashAlgorithm)
+                && Objects.equal(firstTarget, other.firstTarget);
     }
 
     @Override
     public String toString() {
-        return Objects.toStringHelper(this).add("size", size).add("hash", hash).toString();
+        return Objects.toStringHelper(this).add("size", size).add("hash", hash).add("hashAlgorithm", hashAlgorithm)
+                .toString();
     }
 
 }
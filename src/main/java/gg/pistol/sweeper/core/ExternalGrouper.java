@@ -0,0 +1,348 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.io.Closeables;
+
+/**
+ * Groups targets by a key with bounded memory usage for the analyses of very large trees.
+ *
+ * <p>The (key, target id) records are sorted in runs, each run is written to a temporary file and the runs are merged
+ * afterwards. The groups with more than one target are handed to a {@link GroupHandler} as soon as they are merged.
+ * The target id is the id of the target in the {@link TargetTable} (its pre-order number), the targets are created
+ * again from the table only for the groups. At most one run of records is kept in memory: the length of a run is
+ * derived from the maximum heap size and from the estimated memory of a record.
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+class ExternalGrouper<K extends Comparable<? super K>> {
+
+    // The fraction of the maximum heap size used by the records of a run.
+    private static final int RUN_MEMORY_FRACTION = 16;
+
+    /**
+     * Codec for the sizes.
+     */
+    static final KeyCodec<Long> SIZE_CODEC = new KeyCodec<Long>() {
+        public void write(Long key, DataOutput out) throws IOException {
+            out.writeLong(key);
+        }
+
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+
+        public int getRecordMemory() {
+            return 56; // the record, the boxed size and the reference from the run list
+        }
+    };
+
+    /**
+     * Codec for the hashes.
+     */
+    static final KeyCodec<Fingerprint> FINGERPRINT_CODEC = new KeyCodec<Fingerprint>() {
+        public void write(Fingerprint key, DataOutput out) throws IOException {
+            out.writeLong(key.getSize());
+            out.writeByte(key.getDigestLength());
+            out.write(key.getDigest());
+        }
+
+        public Fingerprint read(DataInput in) throws IOException {
+            long size = in.readLong();
+            byte[] digest = new byte[in.readUnsignedByte()];
+            in.readFully(digest);
+            return Fingerprint.of(size, digest);
+        }
+
+        public int getRecordMemory() {
+            return 120; // the record, the fingerprint with its digest and the reference from the run list
+        }
+    };
+
+    private final Function<TargetImpl, K> keyFunction;
+    private final KeyCodec<K> codec;
+    private final int runLength;
+    @Nullable private final File directory;
+    private final AtomicBoolean abortFlag;
+
+
+    /**
+     * Create a grouper with the length of the runs derived from the maximum heap size.
+     *
+     * @param keyFunction
+     *         the function that provides the grouping key of a target, the targets with a {@code null} key are ignored
+     * @param directory
+     *         the directory of the temporary run files or {@code null} for the default temporary directory
+     */
+    ExternalGrouper(Function<TargetImpl, K> keyFunction, KeyCodec<K> codec, @Nullable File directory,
+                    AtomicBoolean abortFlag) {
+        this(keyFunction, codec, getRunLength(codec), directory, abortFlag);
+    }
+
+    /**
+     * @param keyFunction
+     *         the function that provides the grouping key of a target, the targets with a {@code null} key are ignored
+     * @param runLength
+     *         the number of records sorted in memory for a run
+     * @param directory
+     *         the directory of the temporary run files or {@code null} for the default temporary directory
+     */
+    ExternalGrouper(Function<TargetImpl, K> keyFunction, KeyCodec<K> codec, int runLength, @Nullable File directory,
+                    AtomicBoolean abortFlag) {
+        Preconditions.checkNotNull(keyFunction);
+        Preconditions.checkNotNull(codec);
+        Preconditions.checkArgument(runLength > 0);
+        Preconditions.checkNotNull(abortFlag);
+        this.keyFunction = keyFunction;
+        this.codec = codec;
+        this.runLength = runLength;
+        this.directory = directory;
+        this.abortFlag = abortFlag;
+    }
+
+    /**
+     * The number of records of a run that fit in the fraction of the maximum heap size reserved for a run.
+     */
+    static int getRunLength(KeyCodec<?> codec) {
+        long runLength = Runtime.getRuntime().maxMemory() / RUN_MEMORY_FRACTION / codec.getRecordMemory();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, runLength));
+    }
+
+    /**
+     * Group the {@code targets} by key and hand the groups with more than one target to the {@code handler} in the
+     * order of the keys. The targets of a group are in the decreasing order of their ids (the bottom-up order of the
+     * tree) and they are created from the {@code table}.
+     *
+     * @param targets
+     *         the targets numbered in pre-order by the {@code table}, they are iterated only once
+     */
+    void group(TargetTable table, Iterator<TargetImpl> targets, GroupHandler<K> handler)
+            throws IOException, SweeperAbortException {
+        Preconditions.checkNotNull(table);
+        Preconditions.checkNotNull(targets);
+        Preconditions.checkNotNull(handler);
+        List<File> runs = new ArrayList<File>();
+        try {
+            List<Record<K>> records = new ArrayList<Record<K>>();
+            while (targets.hasNext()) {
+                TargetImpl target = targets.next();
+                K key = keyFunction.apply(target);
+                if (key != null) {
+                    Preconditions.checkState(target.getOrder() > 0, "not numbered");
+                    records.add(new Record<K>(key, target.getOrder()));
+                }
+                if (records.size() == runLength) {
+                    writeRun(records, runs);
+                    records.clear();
+                }
+                checkAbortFlag();
+            }
+            if (!records.isEmpty()) {
+                writeRun(records, runs);
+            }
+            records = null; // the last run is not needed during the merge
+            merge(runs, table, handler);
+        } finally {
+            for (File run : runs) {
+                if (!run.delete()) {
+                    run.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the records and write them to a new run file that is added to the {@code runs}.
+     */
+    private void writeRun(List<Record<K>> records, List<File> runs) throws IOException {
+        Collections.sort(records);
+        File run = File.createTempFile("sweeper-group", ".run", directory);
+        runs.add(run);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+        boolean written = false;
+        try {
+            for (Record<K> record : records) {
+                codec.write(record.key, out);
+                out.writeInt(record.id);
+            }
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                Closeables.closeQuietly(out);
+            }
+        }
+    }
+
+    private void merge(List<File> runs, TargetTable table, GroupHandler<K> handler)
+            throws IOException, SweeperAbortException {
+        PriorityQueue<RunReader<K>> queue = new PriorityQueue<RunReader<K>>(Math.max(1, runs.size()));
+        List<RunReader<K>> readers = new ArrayList<RunReader<K>>();
+        try {
+            for (File run : runs) {
+                RunReader<K> reader = new RunReader<K>(run, codec);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            // The records come out of the queue ordered by key and then by decreasing id. Only the ids of the current
+            // group are kept, the targets are created when the group is complete.
+            K groupKey = null;
+            List<Integer> group = new ArrayList<Integer>();
+            while (!queue.isEmpty()) {
+                RunReader<K> reader = queue.poll();
+                if (groupKey == null || groupKey.compareTo(reader.current.key) != 0) {
+                    emit(groupKey, group, table, handler);
+                    groupKey = reader.current.key;
+                    group.clear();
+                }
+                group.add(reader.current.id);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+                checkAbortFlag();
+            }
+            emit(groupKey, group, table, handler);
+        } finally {
+            for (RunReader<K> reader : readers) {
+                Closeables.closeQuietly(reader.in);
+            }
+        }
+    }
+
+    private void emit(@Nullable K key, List<Integer> group, TargetTable table, GroupHandler<K> handler)
+            throws SweeperAbortException {
+        if (group.size() > 1) {
+            List<TargetImpl> targets = new ArrayList<TargetImpl>(group.size());
+            for (int id : group) {
+                targets.add(table.getTarget(id));
+            }
+            handler.group(key, targets);
+        }
+    }
+
+    private void checkAbortFlag() throws SweeperAbortException {
+        if (abortFlag.get()) {
+            throw new SweeperAbortException();
+        }
+    }
+
+    /**
+     * Binary codec of the grouping keys.
+     */
+    static interface KeyCodec<K> {
+
+        void write(K key, DataOutput out) throws IOException;
+
+        K read(DataInput in) throws IOException;
+
+        /**
+         * The estimated memory in bytes of a record with a key, used for the length of the runs.
+         */
+        int getRecordMemory();
+    }
+
+    /**
+     * Receiver of the groups with more than one target.
+     */
+    static interface GroupHandler<K> {
+
+        /**
+         * Handle a group, the {@code targets} list is owned by the handler.
+         */
+        void group(K key, List<TargetImpl> targets) throws SweeperAbortException;
+    }
+
+    private static class Record<K extends Comparable<? super K>> implements Comparable<Record<K>> {
+
+        private final K key;
+        private final int id;
+
+        private Record(K key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        public int compareTo(Record<K> other) {
+            return ComparisonChain.start().compare(key, other.key).compare(other.id, id).result();
+        }
+    }
+
+    /**
+     * Sequential reader of the records of a run, ordered by its current record.
+     */
+    private static class RunReader<K extends Comparable<? super K>> implements Comparable<RunReader<K>> {
+
+        private final DataInputStream in;
+        private final KeyCodec<K> codec;
+        @Nullable private Record<K> current;
+
+        private RunReader(File run, KeyCodec<K> codec) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            this.codec = codec;
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return {@code false} in case the run ended
+         */
+        private boolean next() throws IOException {
+            K key;
+            try {
+                key = codec.read(in);
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            current = new Record<K>(key, in.readInt());
+            return true;
+        }
+
+        public int compareTo(RunReader<K> other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+}
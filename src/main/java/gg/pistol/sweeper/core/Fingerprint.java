@@ -0,0 +1,183 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+
+/**
+ * Immutable content fingerprint made of the content size and the binary digest of the content.
+ *
+ * <p>The digest is stored in a fixed number of longs (up to 256 bits) in order to be compact and fast to compare when
+ * used as a key for grouping duplicates. The hexadecimal representation is only created for display purposes.
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+final class Fingerprint implements Comparable<Fingerprint> {
+
+    static final int MAX_DIGEST_LENGTH = 32;
+
+    /**
+     * The length in bytes of the fixed-width binary form written by {@link #writeTo}.
+     */
+    static final int BINARY_LENGTH = 8 + MAX_DIGEST_LENGTH;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long size;
+
+    // The digest bytes in big-endian order, padded with zeros.
+    private final long d0;
+    private final long d1;
+    private final long d2;
+    private final long d3;
+
+    private final int digestLength;
+
+
+    private Fingerprint(long size, long d0, long d1, long d2, long d3, int digestLength) {
+        this.size = size;
+        this.d0 = d0;
+        this.d1 = d1;
+        this.d2 = d2;
+        this.d3 = d3;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * Create a fingerprint from the content size and a digest of maximum {@link #MAX_DIGEST_LENGTH} bytes.
+     */
+    static Fingerprint of(long size, byte[] digest) {
+        Preconditions.checkNotNull(digest);
+        Preconditions.checkArgument(digest.length <= MAX_DIGEST_LENGTH, "The digest is too long");
+        return new Fingerprint(size, getLong(digest, 0), getLong(digest, 8), getLong(digest, 16), getLong(digest, 24),
+                digest.length);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long ret = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            ret = (ret << 8) | (i < bytes.length ? bytes[i] & 0xffL : 0L);
+        }
+        return ret;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Getter for a copy of the digest bytes.
+     */
+    byte[] getDigest() {
+        byte[] ret = new byte[digestLength];
+        for (int i = 0; i < digestLength; i++) {
+            ret[i] = getByte(i);
+        }
+        return ret;
+    }
+
+    private byte getByte(int index) {
+        long value;
+        switch (index / 8) {
+            case 0: value = d0; break;
+            case 1: value = d1; break;
+            case 2: value = d2; break;
+            default: value = d3; break;
+        }
+        return (byte) (value >>> (8 * (7 - index % 8)));
+    }
+
+    /**
+     * Write the fixed-width binary form of the fingerprint (the size followed by the zero padded digest, all in
+     * big-endian order) of {@link #BINARY_LENGTH} bytes into {@code buf} starting from {@code offset}.
+     *
+     * @return the offset after the written bytes
+     */
+    int writeTo(byte[] buf, int offset) {
+        Preconditions.checkNotNull(buf);
+        Preconditions.checkPositionIndexes(offset, offset + BINARY_LENGTH, buf.length);
+        offset = putLong(buf, offset, size);
+        offset = putLong(buf, offset, d0);
+        offset = putLong(buf, offset, d1);
+        offset = putLong(buf, offset, d2);
+        return putLong(buf, offset, d3);
+    }
+
+    private static int putLong(byte[] buf, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+        return offset + 8;
+    }
+
+    /**
+     * The hexadecimal representation of the digest.
+     */
+    String toHex() {
+        char[] chars = new char[2 * digestLength];
+        for (int i = 0; i < digestLength; i++) {
+            int b = getByte(i) & 0xff;
+            chars[2 * i] = HEX_DIGITS[b >>> 4];
+            chars[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Order by size, then by digest.
+     */
+    public int compareTo(Fingerprint other) {
+        Preconditions.checkNotNull(other);
+        return ComparisonChain.start().compare(size, other.size).compare(d0, other.d0).compare(d1, other.d1)
+                .compare(d2, other.d2).compare(d3, other.d3).compare(digestLength, other.digestLength).result();
+    }
+
+    @Override
+    public int hashCode() {
+        // The digest bits are already uniformly distributed.
+        return (int) (d0 ^ (d0 >>> 32)) * 31 + (int) (size ^ (size >>> 32));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        Fingerprint other = (Fingerprint) obj;
+        return size == other.size && d0 == other.d0 && d1 == other.d1 && d2 == other.d2 && d3 == other.d3
+                && digestLength == other.digestLength;
+    }
+
+    /**
+     * The size followed by the hexadecimal representation of the digest.
+     */
+    @Override
+    public String toString() {
+        return size + toHex();
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Service provider interface for the hash algorithms used to compare the content of the targets.
+ *
+ * <p>Implementations need to provide a new {@link MessageDigest} instance for every call of {@link #createDigest} as
+ * the digests are not shared between the hashing threads.
+ *
+ * @author Bogdan Pistol
+ */
+public interface HashAlgorithm {
+
+    /**
+     * Getter for the name of the algorithm. The name is recorded together with the computed hashes, the hashes computed
+     * with algorithms having different names are never compared.
+     *
+     * @return the algorithm name
+     */
+    String getName();
+
+    /**
+     * Create a new digest that implements the algorithm.
+     *
+     * @return the new digest instance
+     * @throws NoSuchAlgorithmException
+     *         if the algorithm is not available
+     */
+    MessageDigest createDigest() throws NoSuchAlgorithmException;
+
+}
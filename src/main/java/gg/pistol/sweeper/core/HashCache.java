@@ -0,0 +1,238 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * Persistent cache of the file hashes that allows skipping the reading of the files that did not change since the
+ * previous analysis.
+ *
+ * <p>An entry is identified by the file path and it is valid only if the size, the modification date and the file key
+ * (e.g. the inode) of the file are still the same. The cache is bound to the hash algorithm, a cache file that was
+ * written with a different algorithm is ignored.
+ *
+ * <p>When the cache is saved the entries that were not used by the last {@link #MAX_UNUSED_ANALYSES} analyses are
+ * evicted (the files were deleted or they are no longer analyzed).
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+@ThreadSafe
+class HashCache {
+
+    private static final int MAGIC = 0x53574843;
+    private static final int VERSION = 2;
+
+    /**
+     * The number of consecutive analyses after which an entry that was not used is evicted.
+     */
+    static final int MAX_UNUSED_ANALYSES = 16;
+
+    private final File file;
+    private final String algorithm;
+
+    @GuardedBy("this") private final Map<String, Entry> entries;
+
+    // The number of the current analysis (the entries remember the number of the last analysis that used them).
+    @GuardedBy("this") private int analysis;
+
+
+    /**
+     * Create an empty cache that will be saved in the {@code file}.
+     */
+    HashCache(File file, HashAlgorithm algorithm) {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkNotNull(algorithm);
+        this.file = file;
+        this.algorithm = algorithm.getName();
+        entries = new HashMap<String, Entry>();
+    }
+
+    /**
+     * Load the cache from the {@code file}. In case the file does not exist or it was written for a different hash
+     * algorithm then the returned cache is empty.
+     *
+     * @throws IOException
+     *         in case the file cannot be read or it is malformed
+     */
+    static HashCache load(File file, HashAlgorithm algorithm) throws IOException {
+        HashCache cache = new HashCache(file, algorithm);
+        if (!file.isFile()) {
+            return cache;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file <" + file + "> is not a hash cache");
+            }
+            if (in.readInt() != VERSION || !cache.algorithm.equals(in.readUTF())) {
+                return cache;
+            }
+            cache.analysis = in.readInt() + 1;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                String fileKey = in.readBoolean() ? in.readUTF() : null;
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                Entry entry = new Entry(Fingerprint.of(size, digest), modified, fileKey);
+                entry.lastUsed = in.readInt();
+                cache.entries.put(path, entry);
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+        return cache;
+    }
+
+    /**
+     * Retrieve the cached hash of a file. A stale entry is removed.
+     *
+     * @return the cached hash or {@code null} in case there is no valid entry
+     */
+    @Nullable
+    synchronized Fingerprint get(String path, long size, long modified, @Nullable Object fileKey) {
+        Preconditions.checkNotNull(path);
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.fingerprint.getSize() != size || entry.modified != modified
+                || !Objects.equal(entry.fileKey, toString(fileKey))) {
+            entries.remove(path);
+            return null;
+        }
+        entry.lastUsed = analysis;
+        return entry.fingerprint;
+    }
+
+    synchronized void put(String path, long modified, @Nullable Object fileKey, Fingerprint fingerprint) {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkNotNull(fingerprint);
+        Entry entry = new Entry(fingerprint, modified, toString(fileKey));
+        entry.lastUsed = analysis;
+        entries.put(path, entry);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Nullable
+    private static String toString(@Nullable Object fileKey) {
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    /**
+     * Save the cache in the file. The entries that were not used by the last {@link #MAX_UNUSED_ANALYSES} analyses
+     * (including the current one) are evicted.
+     *
+     * <p>The cache is written in a temporary file that atomically replaces the previous cache file (where the file
+     * system supports it), so an interrupted save does not corrupt the cache.
+     */
+    synchronized void save() throws IOException {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (analysis - it.next().lastUsed >= MAX_UNUSED_ANALYSES) {
+                it.remove();
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(algorithm);
+            out.writeInt(analysis);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.fingerprint.getSize());
+                out.writeLong(entry.modified);
+                out.writeBoolean(entry.fileKey != null);
+                if (entry.fileKey != null) {
+                    out.writeUTF(entry.fileKey);
+                }
+                out.writeByte(entry.fingerprint.getDigestLength());
+                out.write(entry.fingerprint.getDigest());
+                out.writeInt(entry.lastUsed);
+            }
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                Closeables.closeQuietly(out);
+                tmp.delete();
+            }
+        }
+        try {
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+
+    private static class Entry {
+        private final Fingerprint fingerprint;
+        private final long modified;
+        @Nullable private final String fileKey;
+
+        // The number of the last analysis that used the entry.
+        private int lastUsed;
+
+        private Entry(Fingerprint fingerprint, long modified, @Nullable String fileKey) {
+            this.fingerprint = fingerprint;
+            this.modified = modified;
+            this.fileKey = fileKey;
+        }
+    }
+
+}
@@ -17,17 +17,23 @@
  */
 package gg.pistol.sweeper.core;
 
+import gg.pistol.sweeper.core.AnalysisOptions.ReadMode;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Preconditions;
 
 /**
- * SHA-1 hash function implementation.
+ * Hash function implementation based on a {@link HashAlgorithm} (SHA-1 by default).
  *
  * @author Bogdan Pistol
  */
@@ -36,31 +42,58 @@ class HashFunction {
 
     private static final int BUFFER_SIZE = 16 * (1 << 10); // 16 KB
 
+    private static final int DIRECT_BUFFER_SIZE = 256 * (1 << 10); // 256 KB
+
+    /*
+     * Channels with at least MAPPING_THRESHOLD_SIZE bytes are read through memory mapped windows of maximum
+     * MAPPING_WINDOW_SIZE bytes (in case the read mode is MAPPED).
+     */
+    private static final long MAPPING_THRESHOLD_SIZE = 1 << 20; // 1 MB
+    private static final long MAPPING_WINDOW_SIZE = 64 * (1 << 20); // 64 MB
+
     /*
      * Track the progress in minimum chunks of TRACKING_THRESHOLD_SIZE.
      */
     private static final int TRACKING_THRESHOLD_SIZE = 5 * (1 << 20); // 5 MB
 
-    private final MessageDigest sha1Algorithm;
+    private final HashAlgorithm algorithm;
+
+    private final MessageDigest messageDigest;
+
+    private final ReadMode readMode;
 
     private final byte[] buf;
 
+    @Nullable private ByteBuffer directBuf;
+
+    private int trackingSize;
+
 
     HashFunction() throws NoSuchAlgorithmException {
-        sha1Algorithm = MessageDigest.getInstance("SHA-1");
+        this(StandardHashAlgorithm.SHA_1, ReadMode.CHANNEL);
+    }
+
+    HashFunction(HashAlgorithm algorithm, ReadMode readMode) throws NoSuchAlgorithmException {
+        Preconditions.checkNotNull(algorithm);
+        Preconditions.checkNotNull(readMode);
+        this.algorithm = algorithm;
+        messageDigest = algorithm.createDigest();
+        Preconditions.checkArgument(messageDigest.getDigestLength() <= Fingerprint.MAX_DIGEST_LENGTH,
+                "The digest of the algorithm <" + algorithm.getName() + "> is too long");
+        this.readMode = readMode;
         buf = new byte[BUFFER_SIZE];
     }
 
     /**
-     * Computes the SHA-1 hash from the {@code inputStream} bytes with progress indication through the provided
+     * Computes the hash from the {@code inputStream} bytes with progress indication through the provided
      * {@code listener}.
      *
      * <p>If the {@code abortFlag} flag changes while this method executes an {@link SweeperAbortException} will be
      * thrown.
      *
-     * @return the hexadecimal representation of the computed SHA-1 hash
+     * @return the digest bytes of the computed hash
      */
-    String compute(InputStream inputStream, OperationTrackingListener listener, AtomicBoolean abortFlag)
+    byte[] compute(InputStream inputStream, OperationTrackingListener listener, AtomicBoolean abortFlag)
             throws IOException, SweeperAbortException {
 
         Preconditions.checkNotNull(inputStream);
@@ -71,37 +104,217 @@ class HashFunction {
             return doCompute(inputStream, listener, abortFlag);
         } finally {
             // Reset the hash for further use.
-            sha1Algorithm.reset();
+            messageDigest.reset();
         }
     }
 
-    private String doCompute(InputStream inputStream, OperationTrackingListener listener, AtomicBoolean abortFlag)
+    /**
+     * Computes the hash from the {@code channel} bytes (from the current position of the channel until the end)
+     * with progress indication through the provided {@code listener}. Depending on the {@link ReadMode} the bytes are
+     * read into a direct buffer or through memory mapped windows.
+     *
+     * <p>If the {@code abortFlag} flag changes while this method executes an {@link SweeperAbortException} will be
+     * thrown.
+     *
+     * @return the digest bytes of the computed hash
+     */
+    byte[] compute(FileChannel channel, OperationTrackingListener listener, AtomicBoolean abortFlag)
             throws IOException, SweeperAbortException {
-        int len;
-        int trackingSize = 0;
 
-        while ((len = inputStream.read(buf)) != -1) {
-            sha1Algorithm.update(buf, 0, len);
+        Preconditions.checkNotNull(channel);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(abortFlag);
+
+        try {
+            return doCompute(channel, listener, abortFlag);
+        } finally {
+            // Reset the hash for further use.
+            messageDigest.reset();
+        }
+    }
+
+    /**
+     * Computes the hash of a sequence of {@code fingerprints} by feeding their fixed-width binary form (see
+     * {@link Fingerprint#writeTo}) to the digest, without any intermediate text representation.
+     *
+     * <p>If the {@code abortFlag} flag changes while this method executes an {@link SweeperAbortException} will be
+     * thrown.
+     *
+     * @return the digest bytes of the computed hash
+     */
+    byte[] compute(Iterable<Fingerprint> fingerprints, AtomicBoolean abortFlag) throws SweeperAbortException {
+        Preconditions.checkNotNull(fingerprints);
+        Preconditions.checkNotNull(abortFlag);
 
-            trackingSize += len;
-            if (trackingSize >= TRACKING_THRESHOLD_SIZE) {
-                listener.incrementTargetProgress(trackingSize);
-                trackingSize = 0;
+        try {
+            int len = 0;
+            for (Fingerprint fingerprint : fingerprints) {
+                if (len + Fingerprint.BINARY_LENGTH > buf.length) {
+                    messageDigest.update(buf, 0, len);
+                    len = 0;
+                    if (abortFlag.get()) {
+                        throw new SweeperAbortException();
+                    }
+                }
+                len = fingerprint.writeTo(buf, len);
             }
+            messageDigest.update(buf, 0, len);
+            return messageDigest.digest();
+        } finally {
+            // Reset the hash for further use.
+            messageDigest.reset();
+        }
+    }
+
+    HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Determine if the channels should be preferred over input streams for reading the content.
+     */
+    boolean isChannelPreferred() {
+        return readMode != ReadMode.STREAM;
+    }
 
-            if (abortFlag.get()) {
-                throw new SweeperAbortException();
+    private byte[] doCompute(InputStream inputStream, OperationTrackingListener listener, AtomicBoolean abortFlag)
+            throws IOException, SweeperAbortException {
+        trackingSize = 0;
+        doUpdate(messageDigest, inputStream, Long.MAX_VALUE, listener, abortFlag);
+        return messageDigest.digest();
+    }
+
+    private byte[] doCompute(FileChannel channel, OperationTrackingListener listener, AtomicBoolean abortFlag)
+            throws IOException, SweeperAbortException {
+        trackingSize = 0;
+        doUpdate(messageDigest, channel, listener, abortFlag);
+        return messageDigest.digest();
+    }
+
+    /**
+     * Create a new digest of the hash algorithm that can be updated in multiple steps with the {@code update} methods
+     * and whose intermediate values can be retrieved with {@link #intermediateDigest}.
+     *
+     * @return the digest or {@code null} in case the digest of the hash algorithm cannot be cloned
+     */
+    @Nullable
+    MessageDigest newResumableDigest() {
+        try {
+            // The message digest is always in the reset state between computations.
+            return (MessageDigest) messageDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the digest of the bytes fed so far to a digest created by {@link #newResumableDigest} without
+     * changing its state.
+     */
+    static byte[] intermediateDigest(MessageDigest digest) {
+        Preconditions.checkNotNull(digest);
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Update the {@code digest} with at most {@code length} bytes from the {@code inputStream}.
+     *
+     * @return the number of bytes read
+     */
+    long update(MessageDigest digest, InputStream inputStream, long length, OperationTrackingListener listener,
+                AtomicBoolean abortFlag) throws IOException, SweeperAbortException {
+        Preconditions.checkNotNull(digest);
+        Preconditions.checkNotNull(inputStream);
+        Preconditions.checkArgument(length >= 0);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(abortFlag);
+        trackingSize = 0;
+        return doUpdate(digest, inputStream, length, listener, abortFlag);
+    }
+
+    /**
+     * Update the {@code digest} with the {@code channel} bytes from the current position of the channel until the end.
+     *
+     * @return the number of bytes read
+     */
+    long update(MessageDigest digest, FileChannel channel, OperationTrackingListener listener, AtomicBoolean abortFlag)
+            throws IOException, SweeperAbortException {
+        Preconditions.checkNotNull(digest);
+        Preconditions.checkNotNull(channel);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(abortFlag);
+        trackingSize = 0;
+        return doUpdate(digest, channel, listener, abortFlag);
+    }
+
+    private long doUpdate(MessageDigest digest, InputStream inputStream, long length, OperationTrackingListener listener,
+                          AtomicBoolean abortFlag) throws IOException, SweeperAbortException {
+        long total = 0;
+        int len;
+
+        while (total < length && (len = inputStream.read(buf, 0, (int) Math.min(buf.length, length - total))) != -1) {
+            digest.update(buf, 0, len);
+            total += len;
+            track(len, listener, abortFlag);
+        }
+        return total;
+    }
+
+    private long doUpdate(MessageDigest digest, FileChannel channel, OperationTrackingListener listener,
+                          AtomicBoolean abortFlag) throws IOException, SweeperAbortException {
+        long position = channel.position();
+        long size = channel.size();
+        long total = 0;
+
+        if (readMode == ReadMode.MAPPED && size - position >= MAPPING_THRESHOLD_SIZE) {
+            while (position < size) {
+                long windowSize = Math.min(MAPPING_WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+                // Feed the window in chunks in order to track the progress and to check the abort flag.
+                while (window.hasRemaining()) {
+                    int len = Math.min(window.remaining(), TRACKING_THRESHOLD_SIZE);
+                    ByteBuffer chunk = window.slice();
+                    chunk.limit(len);
+                    digest.update(chunk);
+                    window.position(window.position() + len);
+                    track(len, listener, abortFlag);
+                }
+                position += windowSize;
+                total += windowSize;
+            }
+        } else {
+            if (directBuf == null) {
+                directBuf = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+            }
+            directBuf.clear();
+            int len;
+            while ((len = channel.read(directBuf)) != -1) {
+                directBuf.flip();
+                digest.update(directBuf);
+                directBuf.clear();
+                total += len;
+                track(len, listener, abortFlag);
             }
         }
+        return total;
+    }
 
-        byte[] digest = sha1Algorithm.digest();
+    private void track(int len, OperationTrackingListener listener, AtomicBoolean abortFlag)
+            throws SweeperAbortException {
+        trackingSize += len;
+        if (trackingSize >= TRACKING_THRESHOLD_SIZE) {
+            listener.incrementTargetProgress(trackingSize);
+            trackingSize = 0;
+        }
 
-        // Transform the hash into a hexadecimal representation.
-        Formatter formatter = new Formatter();
-        for (byte b : digest) {
-            formatter.format("%02x", b);
+        if (abortFlag.get()) {
+            throw new SweeperAbortException();
         }
-        return formatter.toString();
     }
 
 }
@@ -0,0 +1,197 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import java.security.MessageDigest;
+
+/**
+ * Pure Java implementation of the 128 bits x64 variant of the MurmurHash3 (with the seed zero) as a
+ * {@link MessageDigest}.
+ *
+ * <p>The digest bytes are the two 64 bits halves of the hash in little-endian order (the same bytes as the reference
+ * C++ implementation writes in memory on x64).
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+class Murmur3MessageDigest extends MessageDigest implements Cloneable {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+
+    // The bytes of the current incomplete block.
+    private byte[] tail;
+    private int tailLength;
+
+    private long totalLength;
+
+
+    Murmur3MessageDigest(String algorithm) {
+        super(algorithm);
+        tail = new byte[BLOCK_SIZE];
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        Murmur3MessageDigest ret = (Murmur3MessageDigest) super.clone();
+        ret.tail = tail.clone();
+        return ret;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        tail[tailLength++] = input;
+        totalLength++;
+        if (tailLength == BLOCK_SIZE) {
+            processBlock(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        int end = offset + len;
+        totalLength += len;
+
+        // Complete the incomplete block from the previous updates.
+        if (tailLength > 0) {
+            int n = Math.min(BLOCK_SIZE - tailLength, len);
+            System.arraycopy(input, offset, tail, tailLength, n);
+            tailLength += n;
+            offset += n;
+            if (tailLength < BLOCK_SIZE) {
+                return;
+            }
+            processBlock(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+
+        for (; offset + BLOCK_SIZE <= end; offset += BLOCK_SIZE) {
+            processBlock(getLong(input, offset), getLong(input, offset + 8));
+        }
+
+        tailLength = end - offset;
+        System.arraycopy(input, offset, tail, 0, tailLength);
+    }
+
+    private void processBlock(long k1, long k2) {
+        h1 ^= mixK1(k1);
+
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tailLength - 1; i >= 8; i--) {
+            k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+        }
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+            k1 ^= (tail[i] & 0xffL) << (i * 8);
+        }
+        h1 ^= mixK1(k1);
+        h2 ^= mixK2(k2);
+
+        h1 ^= totalLength;
+        h2 ^= totalLength;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        byte[] digest = new byte[DIGEST_LENGTH];
+        putLong(digest, 0, h1);
+        putLong(digest, 8, h2);
+        engineReset();
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        h1 = 0;
+        h2 = 0;
+        tailLength = 0;
+        totalLength = 0;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /*
+     * Little-endian long from 8 bytes.
+     */
+    private static long getLong(byte[] b, int offset) {
+        long ret = 0;
+        for (int i = 7; i >= 0; i--) {
+            ret = (ret << 8) | (b[offset + i] & 0xffL);
+        }
+        return ret;
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            b[offset + i] = (byte) (value >>> (i * 8));
+        }
+    }
+
+}
@@ -19,15 +19,20 @@ package gg.pistol.sweeper.core;
 
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 import com.google.common.base.Preconditions;
 
 /**
  * Wrapper for {@link SweeperOperationListener} that provides tracking of operation progress.
  *
+ * <p>This class is thread safe, the wrapped listener will be called by one thread at a time.
+ *
  * @author Bogdan Pistol
  */
 // package private
+@ThreadSafe
 class OperationTrackingListener implements SweeperOperationListener {
 
     /**
@@ -46,11 +51,11 @@ class OperationTrackingListener implements SweeperOperationListener {
     // The wrapped listener.
     private final SweeperOperationListener listener;
 
-    @Nullable private SweeperOperation operation;
+    @GuardedBy("this") @Nullable private SweeperOperation operation;
 
-    private long progress;
-    private long maxProgress = 1; // the smallest operation will be completed in one step
-    private int percentGlobal;
+    @GuardedBy("this") private long progress;
+    @GuardedBy("this") private long maxProgress = 1; // the smallest operation will be completed in one step
+    @GuardedBy("this") private int percentGlobal;
 
 
     OperationTrackingListener(SweeperOperationListener listener) {
@@ -67,7 +72,7 @@ class OperationTrackingListener implements SweeperOperationListener {
         Preconditions.checkArgument(progress >= 0 && progress <= maxProgress);
     }
 
-    public void updateOperation(SweeperOperation operation) {
+    public synchronized void updateOperation(SweeperOperation operation) {
         Preconditions.checkNotNull(operation);
 
         // Start a new operation only after the previous one completed.
@@ -77,7 +82,7 @@ class OperationTrackingListener implements SweeperOperationListener {
         listener.updateOperation(operation);
     }
 
-    public void updateOperationProgress(long progress, long maxProgress, int percentGlobal) {
+    public synchronized void updateOperationProgress(long progress, long maxProgress, int percentGlobal) {
         // Update only when an operation is started.
         checkOperation();
 
@@ -90,14 +95,14 @@ class OperationTrackingListener implements SweeperOperationListener {
         listener.updateOperationProgress(progress, maxProgress, percentGlobal);
     }
 
-    public void updateTarget(Target target) {
+    public synchronized void updateTarget(Target target) {
         Preconditions.checkNotNull(target);
         checkOperation();
 
         listener.updateTarget(target);
     }
 
-    public void updateException(Target target, SweeperException e) {
+    public synchronized void updateException(Target target, SweeperException e) {
         Preconditions.checkNotNull(target);
         Preconditions.checkNotNull(e);
         checkOperation();
@@ -109,7 +114,7 @@ class OperationTrackingListener implements SweeperOperationListener {
      * Configure the maximum progress that the current operation will reach when completed. This is required before
      * updating the progress for the operation.
      */
-    void setOperationMaxProgress(long maxProgress) {
+    synchronized void setOperationMaxProgress(long maxProgress) {
         checkOperation();
         Preconditions.checkArgument(maxProgress >= 0);
 
@@ -136,7 +141,7 @@ class OperationTrackingListener implements SweeperOperationListener {
      * @param progress
      *         an absolute value representing the progress
      */
-    void incrementOperationProgress(long progress) {
+    synchronized void incrementOperationProgress(long progress) {
         checkOperation();
         checkProgressArgument(progress);
 
@@ -161,7 +166,7 @@ class OperationTrackingListener implements SweeperOperationListener {
      * @param relativeProgress
      *         a relative value representing the progress increment
      */
-    void incrementTargetProgress(long relativeProgress) {
+    synchronized void incrementTargetProgress(long relativeProgress) {
         checkOperation();
         long operationProgress = progress + relativeProgress;
         checkProgressArgument(operationProgress);
@@ -172,7 +177,7 @@ class OperationTrackingListener implements SweeperOperationListener {
     /**
      * Mark that the operation is done and update the listener with max progress if not already updated.
      */
-    void operationCompleted() {
+    synchronized void operationCompleted() {
         checkOperation();
 
         percentGlobal += operation.getPercentQuota();
@@ -0,0 +1,191 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import gg.pistol.sweeper.core.SweeperPoll.Mark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Ints;
+
+/**
+ * Rules that resolve the duplicate polls without user interaction (see {@link Sweeper#resolve}). In every poll exactly
+ * one target is retained and all the other targets are marked for deletion, the same as resolving the poll manually.
+ *
+ * <p>The retained target is chosen in the following way:
+ *
+ * <ol><li>the candidates are the targets that are not marked by default for deletion (when there are targets retained
+ * by previous polls only those are candidates);</li>
+ * <li>the candidates under the directories to delete are excluded, unless all the candidates are under them (one
+ * target of a duplicate group is always retained);</li>
+ * <li>the preferences are applied in the order they were added, each preference breaking the ties of the previous
+ * ones (e.g. prefer the paths with a prefix and then the oldest target);</li>
+ * <li>the remaining ties are broken by the order of the names.</li></ol>
+ *
+ * <p>The policy is meant to be configured before resolving the polls.
+ *
+ * @author Bogdan Pistol
+ */
+@ThreadSafe
+public class ResolutionPolicy {
+
+    private final List<String> deletedDirectories = new CopyOnWriteArrayList<String>();
+    private final List<Comparator<Target>> preferences = new CopyOnWriteArrayList<Comparator<Target>>();
+
+    /**
+     * Delete the targets that are inside the {@code directory} (or the directory itself).
+     *
+     * @param directory
+     *         the path of the directory
+     * @return this policy
+     */
+    public ResolutionPolicy deleteUnder(String directory) {
+        Preconditions.checkNotNull(directory);
+        Preconditions.checkArgument(!directory.isEmpty(), "The directory is empty");
+        deletedDirectories.add(directory);
+        return this;
+    }
+
+    /**
+     * Prefer to retain the targets whose path starts with the {@code prefix}.
+     *
+     * @param prefix
+     *         the prefix of the path
+     * @return this policy
+     */
+    public ResolutionPolicy preferPrefix(final String prefix) {
+        Preconditions.checkNotNull(prefix);
+        preferences.add(new Comparator<Target>() {
+            public int compare(Target t1, Target t2) {
+                // the matching targets come first
+                return Booleans.compare(t2.getName().startsWith(prefix), t1.getName().startsWith(prefix));
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Prefer to retain the target with the oldest modification date.
+     *
+     * @return this policy
+     */
+    public ResolutionPolicy preferOldest() {
+        preferences.add(new Comparator<Target>() {
+            public int compare(Target t1, Target t2) {
+                return compareDates(t1.getModificationDate(), t2.getModificationDate(), false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Prefer to retain the target with the newest modification date.
+     *
+     * @return this policy
+     */
+    public ResolutionPolicy preferNewest() {
+        preferences.add(new Comparator<Target>() {
+            public int compare(Target t1, Target t2) {
+                return compareDates(t1.getModificationDate(), t2.getModificationDate(), true);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Prefer to retain the target with the shortest path.
+     *
+     * @return this policy
+     */
+    public ResolutionPolicy preferShortestPath() {
+        preferences.add(new Comparator<Target>() {
+            public int compare(Target t1, Target t2) {
+                return Ints.compare(t1.getName().length(), t2.getName().length());
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Compare the dates in ascending order (or descending in case of {@code reverse}), the missing dates come last.
+     */
+    private static int compareDates(@Nullable DateTime date1, @Nullable DateTime date2, boolean reverse) {
+        if (date1 == null || date2 == null) {
+            return Booleans.compare(date1 == null, date2 == null);
+        }
+        return reverse ? date2.compareTo(date1) : date1.compareTo(date2);
+    }
+
+    /**
+     * Mark the targets of the {@code poll}: the chosen target is retained and all the others are deleted.
+     */
+    void resolve(SweeperPoll poll) {
+        Preconditions.checkNotNull(poll);
+        List<Target> candidates = new ArrayList<Target>();
+        for (Target target : poll.getTargets()) {
+            if (poll.getMark(target) != Mark.DELETE) {
+                candidates.add(target);
+            }
+        }
+
+        List<Target> retainable = new ArrayList<Target>();
+        for (Target target : candidates) {
+            if (!isDeleted(target.getName())) {
+                retainable.add(target);
+            }
+        }
+        if (retainable.isEmpty()) {
+            retainable = candidates;
+        }
+
+        Target retained = Ordering.compound(preferences).compound(Ordering.<Target>natural()).min(retainable);
+        for (Target target : poll.getTargets()) {
+            poll.mark(target, target.equals(retained) ? Mark.RETAIN : Mark.DELETE);
+        }
+    }
+
+    private boolean isDeleted(String name) {
+        for (String directory : deletedDirectories) {
+            if (isUnder(name, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnder(String name, String directory) {
+        if (!name.startsWith(directory)) {
+            return false;
+        }
+        return name.length() == directory.length() || directory.endsWith(File.separator)
+                || name.charAt(directory.length()) == File.separatorChar;
+    }
+
+}
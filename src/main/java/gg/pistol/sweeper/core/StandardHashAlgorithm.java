@@ -0,0 +1,64 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash algorithms provided by default.
+ *
+ * @author Bogdan Pistol
+ */
+public enum StandardHashAlgorithm implements HashAlgorithm {
+
+    /**
+     * The SHA-1 cryptographic hash (160 bits).
+     */
+    SHA_1("SHA-1"),
+
+    /**
+     * The SHA-256 cryptographic hash (256 bits), slower than SHA-1 but with a lower probability of collisions.
+     */
+    SHA_256("SHA-256"),
+
+    /**
+     * The MurmurHash3 non-cryptographic hash (128 bits, the x64 variant), much faster than the cryptographic hashes.
+     */
+    MURMUR3_128("MurmurHash3-128") {
+        @Override
+        public MessageDigest createDigest() {
+            return new Murmur3MessageDigest(getName());
+        }
+    };
+
+    private final String name;
+
+    private StandardHashAlgorithm(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MessageDigest createDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(name);
+    }
+
+}
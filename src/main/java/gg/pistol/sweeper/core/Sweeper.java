@@ -33,6 +33,7 @@ import javax.annotation.Nullable;
  * <ol><li>Find the duplicates by calling the {@link #analyze} method on the resources.</li>
  * <li>Retrieve and resolve the duplicate polls with {@link #nextPoll}.</li>
  * <li>Optionally, to correct a previous choice it is possible to walk back with {@link #previousPoll}.</li>
+ * <li>Optionally, resolve all the remaining polls at once by a {@link ResolutionPolicy} with {@link #resolve}.</li>
  * <li>Retrieve and review the targets marked for deletion with {@link #getToDeleteTargets}.</li>
  * <li>Delete the undesired duplicate targets with {@link #delete}.</li></ol>
  *
@@ -77,6 +78,18 @@ public interface Sweeper {
     @Nullable
     SweeperPoll previousPoll();
 
+    /**
+     * Resolve all the remaining duplicate polls with the {@code policy}. The polls are generated and marked by the policy
+     * one after another (starting after the latest poll) until there are no more polls, the result is the same as
+     * resolving each poll manually with {@link #nextPoll}. The resolved polls can be walked back and corrected with
+     * {@link #previousPoll}. In case the analysis is running then this method will block until the analysis finishes.
+     *
+     * @param policy
+     *         the rules that choose the targets to retain
+     * @return the number of resolved polls
+     */
+    int resolve(ResolutionPolicy policy);
+
     /**
      * Retrieve the current poll instance. In case the analysis is running then this method will block until the analysis
      * finishes.
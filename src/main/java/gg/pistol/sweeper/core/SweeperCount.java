@@ -113,6 +113,22 @@ public interface SweeperCount {
      */
     long getDuplicateSize();
 
+    /**
+     * Getter for the duplicate candidate files that are hard links to other files (they share the same content
+     * storage, so they are neither hashed again nor reported as duplicates).
+     *
+     * @return the number of hard link files
+     */
+    int getHardLinkFiles();
+
+    /**
+     * Getter for the size of the hard link files, this size is counted in the total size but deleting the hard links
+     * does not free it.
+     *
+     * @return the hard link size in bytes
+     */
+    long getHardLinkSize();
+
     /**
      * Getter for targets marked for deletion.
      *
@@ -28,6 +28,9 @@ class SweeperCountImpl implements SweeperCount {
     private final int duplicateTargetFiles;
     private final long duplicateSize;
 
+    private int hardLinkFiles;
+    private long hardLinkSize;
+
     private int toDeleteTargets;
     private int toDeleteTargetFiles;
     private long toDeleteSize;
@@ -75,6 +78,22 @@ class SweeperCountImpl implements SweeperCount {
         return duplicateSize;
     }
 
+    public int getHardLinkFiles() {
+        return hardLinkFiles;
+    }
+
+    void setHardLinkFiles(int value) {
+        hardLinkFiles = value;
+    }
+
+    public long getHardLinkSize() {
+        return hardLinkSize;
+    }
+
+    void setHardLinkSize(long value) {
+        hardLinkSize = value;
+    }
+
     public int getToDeleteTargets() {
         return toDeleteTargets;
     }
@@ -26,8 +26,11 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,6 +39,7 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 
 /**
  * Sweeper implementation.
@@ -55,9 +59,20 @@ public class SweeperImpl implements Sweeper {
     @GuardedBy("lock") private final Set<TargetImpl> toDeleteTargets;
     @GuardedBy("lock") private final Set<TargetImpl> retainedTargets;
 
+    // The targets marked for deletion indexed by their pre-order numbers.
+    @GuardedBy("lock") private final NavigableMap<Integer, TargetImpl> toDeleteTargetsByOrder;
+
     // All the duplicates resulted from the analysis.
     @GuardedBy("lock") @Nullable private NavigableSet<DuplicateGroup> duplicates;
 
+    // The duplicates that still have at least two targets not marked for deletion (kept up to date when the polls are
+    // applied or undone).
+    @GuardedBy("lock") @Nullable private NavigableSet<DuplicateGroup> unresolvedDuplicates;
+
+    // The duplicates indexed by the pre-order numbers of their targets, the duplicates affected by marking a target
+    // are found in the interval of the target's descendants.
+    @GuardedBy("lock") private final NavigableMap<Integer, DuplicateGroup> duplicatesByOrder;
+
     // Index used when walking the previous poll history.
     @GuardedBy("lock") private int pollHistoryIdx = -1;
 
@@ -74,6 +89,10 @@ public class SweeperImpl implements Sweeper {
         this(new Analyzer());
     }
 
+    public SweeperImpl(AnalysisOptions options) throws SweeperException {
+        this(new Analyzer(options));
+    }
+
     // package private
     SweeperImpl(Analyzer analyzer) {
         Preconditions.checkNotNull(analyzer);
@@ -82,7 +101,9 @@ public class SweeperImpl implements Sweeper {
         this.analyzer = analyzer;
         toDeleteTargets = new LinkedHashSet<TargetImpl>();
         retainedTargets = new HashSet<TargetImpl>();
+        toDeleteTargetsByOrder = new TreeMap<Integer, TargetImpl>();
         polls = new ArrayList<Poll>();
+        duplicatesByOrder = new TreeMap<Integer, DuplicateGroup>();
     }
 
     public void analyze(Collection<? extends Resource> targetResources, SweeperOperationListener listener)
@@ -105,6 +126,8 @@ public class SweeperImpl implements Sweeper {
 
         toDeleteTargets.clear();
         retainedTargets.clear();
+        toDeleteTargetsByOrder.clear();
+        indexDuplicates();
 
         pollHistoryIdx = -1;
         polls.clear();
@@ -154,26 +177,63 @@ public class SweeperImpl implements Sweeper {
             dup = polls.get(polls.size() - 1).getDuplicateGroup();
         }
 
-        /*
-         *  Generate the next poll from the next duplicate group that has some targets not marked for deletion.
-         *  In case this is the first poll then the first duplicate group will be good, otherwise search for a suitable
-         *  duplicate group (wrapping around if the last one is reached) until a maximum of duplicates.size() - 1
-         *  candidates are tried (to exclude the duplicate group of the current poll).
-         */
-        for (int i = 1; i < duplicates.size() || dup == null; i++) {
-            dup = getNextDuplicateGroup(dup);
-            if (dup == null) { // no more duplicates to solve
-                break;
+        // Generate the next poll from the next duplicate group that has some targets not marked for deletion (excluding
+        // the duplicate group of the last poll).
+        DuplicateGroup nextDup = getNextUnresolvedDuplicateGroup(dup);
+        if (nextDup != null && !nextDup.equals(dup)) {
+            next = generatePoll(nextDup);
+        }
+
+        updateCurrentPoll(next);
+        return next;
+    }
+
+    /**
+     * Index the duplicates by the pre-order numbers of their targets and select the unresolved duplicates.
+     */
+    private void indexDuplicates() {
+        duplicatesByOrder.clear();
+        unresolvedDuplicates = new TreeSet<DuplicateGroup>(duplicates.comparator());
+        for (DuplicateGroup dup : duplicates) {
+            for (Target t : dup.getTargets()) {
+                duplicatesByOrder.put(((TargetImpl) t).getOrder(), dup);
+            }
+            if (isUnresolved(dup)) {
+                unresolvedDuplicates.add(dup);
             }
+        }
+    }
 
-            next = generatePoll(dup);
-            if (next != null) {
-                break;
+    /**
+     * Update the unresolved duplicates after the marks of the poll targets changed. Only the duplicates having targets
+     * that are descendants of the poll targets (or the poll targets themselves) are affected.
+     */
+    private void updateUnresolvedDuplicates(Poll poll) {
+        Set<DuplicateGroup> affected = new LinkedHashSet<DuplicateGroup>();
+        for (TargetImpl target : Iterables.concat(poll.getToDeleteTargets(), poll.getRetainedTargets())) {
+            affected.addAll(duplicatesByOrder.subMap(target.getOrder(), true, target.getLastDescendantOrder(), true)
+                    .values());
+        }
+        for (DuplicateGroup dup : affected) {
+            if (isUnresolved(dup)) {
+                unresolvedDuplicates.add(dup);
+            } else {
+                unresolvedDuplicates.remove(dup);
             }
         }
+    }
 
-        updateCurrentPoll(next);
-        return next;
+    /**
+     * Check whether there are at least two targets not marked for deletion (including their ancestors).
+     */
+    private boolean isUnresolved(DuplicateGroup dup) {
+        int count = 0;
+        for (Target t : dup.getTargets()) {
+            if (getTargetAncestorMark((TargetImpl) t) != Mark.DELETE) {
+                count++;
+            }
+        }
+        return count > 1;
     }
 
     private Poll generatePoll(DuplicateGroup dup) {
@@ -254,15 +314,24 @@ public class SweeperImpl implements Sweeper {
     }
 
     private void undoPoll(Poll poll) {
+        // the counters are updated in the same state of the marked targets as when the poll was applied
+        updateToDeleteCount(poll, -1);
         toDeleteTargets.removeAll(poll.getToDeleteTargets());
+        for (TargetImpl target : poll.getToDeleteTargets()) {
+            toDeleteTargetsByOrder.remove(target.getOrder());
+        }
         retainedTargets.removeAll(poll.getRetainedTargets());
-        updateToDeleteCount(poll, -1);
+        updateUnresolvedDuplicates(poll);
     }
 
     private void applyPoll(Poll poll) {
         toDeleteTargets.addAll(poll.getToDeleteTargets());
+        for (TargetImpl target : poll.getToDeleteTargets()) {
+            toDeleteTargetsByOrder.put(target.getOrder(), target);
+        }
         retainedTargets.addAll(poll.getRetainedTargets());
         updateToDeleteCount(poll, +1);
+        updateUnresolvedDuplicates(poll);
     }
 
     /**
@@ -271,50 +340,54 @@ public class SweeperImpl implements Sweeper {
      */
     private void updateToDeleteCount(Poll poll, int countSign) {
         /*
-         * In case a target from the poll has a descendant that is already deleted then counting that target will also
-         * include the descendant's counters. In this situation the counters of the already deleted descendants need to
-         * be removed from the global "count" object. It is not possible to have a situation where a target from
-         * the poll could have a deleted ancestor.
+         * In case a target from the poll has descendants that are already deleted then counting that target will also
+         * include the descendants' counters. In this situation the counters of the already deleted descendants (found
+         * in the interval of the pre-order numbers of the target's descendants) are not counted again. Only the upper
+         * deleted descendants are subtracted because their counters already include the deleted descendants nested
+         * inside them. It is not possible to have a situation where a target from the poll could have a deleted
+         * ancestor.
          */
-        Set<TargetImpl> pollSet = new HashSet<TargetImpl>(poll.getToDeleteTargets());
-        for (TargetImpl target : toDeleteTargets) {
-            TargetImpl parent = target.getParent();
-            while (parent != null) {
-                if (pollSet.contains(parent)) {
-                    // found a deleted descendant, removing its counters
-                    count.setToDeleteTargets(count.getToDeleteTargets() - countSign * target.getTotalTargets());
-                    count.setToDeleteTargetFiles(count.getToDeleteTargetFiles() - countSign * target.getTotalTargetFiles());
-                    count.setToDeleteSize(count.getToDeleteSize() - countSign * target.getSize());
+        for (TargetImpl target : poll.getToDeleteTargets()) {
+            int targets = target.getTotalTargets();
+            int targetFiles = target.getTotalTargetFiles();
+            long size = target.getSize();
+
+            int lastSubtractedOrder = target.getOrder();
+            for (TargetImpl descendant : toDeleteTargetsByOrder.subMap(target.getOrder(), false,
+                    target.getLastDescendantOrder(), true).values()) {
+                if (descendant.getOrder() <= lastSubtractedOrder) {
+                    continue;
                 }
-                parent = parent.getParent();
+                lastSubtractedOrder = descendant.getLastDescendantOrder();
+                targets -= descendant.getTotalTargets();
+                targetFiles -= descendant.getTotalTargetFiles();
+                size -= descendant.getSize();
             }
-        }
 
-        // counting the targets from the poll
-        for (TargetImpl target : poll.getToDeleteTargets()) {
-            count.setToDeleteTargets(count.getToDeleteTargets() + countSign * target.getTotalTargets());
-            count.setToDeleteTargetFiles(count.getToDeleteTargetFiles() + countSign * target.getTotalTargetFiles());
-            count.setToDeleteSize(count.getToDeleteSize() + countSign * target.getSize());
+            count.setToDeleteTargets(count.getToDeleteTargets() + countSign * targets);
+            count.setToDeleteTargetFiles(count.getToDeleteTargetFiles() + countSign * targetFiles);
+            count.setToDeleteSize(count.getToDeleteSize() + countSign * size);
         }
     }
 
     /**
-     * Return the next duplicate group after the provided {@code duplicateGroup}. This method wraps around when
-     * reaching the end of the list of duplicate groups.
+     * Return the next unresolved duplicate group after the provided {@code duplicateGroup}. This method wraps around
+     * when reaching the end of the unresolved duplicate groups, so the provided {@code duplicateGroup} is returned in
+     * case it is the only unresolved one.
      */
     @Nullable
-    private DuplicateGroup getNextDuplicateGroup(@Nullable DuplicateGroup duplicateGroup) {
-        if (duplicates.isEmpty()) {
+    private DuplicateGroup getNextUnresolvedDuplicateGroup(@Nullable DuplicateGroup duplicateGroup) {
+        if (unresolvedDuplicates.isEmpty()) {
             return null;
         }
 
         if (duplicateGroup == null) {
-            return duplicates.first();
+            return unresolvedDuplicates.first();
         }
 
-        DuplicateGroup dup = duplicates.higher(duplicateGroup);
+        DuplicateGroup dup = unresolvedDuplicates.higher(duplicateGroup);
         if (dup == null) {
-            dup = duplicates.first();
+            dup = unresolvedDuplicates.first();
         }
         return dup;
     }
@@ -366,6 +439,50 @@ public class SweeperImpl implements Sweeper {
         }
     }
 
+    public int resolve(ResolutionPolicy policy) {
+        Preconditions.checkNotNull(policy);
+        lock.lock();
+        try {
+            return resolve0(policy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int resolve0(ResolutionPolicy policy) {
+        Preconditions.checkState(analyzed, "not analyzed");
+
+        saveCurrentPoll();
+
+        // The resolution continues after the latest poll (the polls from the history remain applied).
+        pollHistoryIdx = -1;
+        DuplicateGroup dup = null;
+        if (!polls.isEmpty()) {
+            dup = polls.get(polls.size() - 1).getDuplicateGroup();
+        }
+
+        // Every resolved poll resolves its duplicate group, so there are at most duplicates.size() polls.
+        int resolved = 0;
+        while (resolved < duplicates.size()) {
+            dup = getNextUnresolvedDuplicateGroup(dup);
+            if (dup == null) {
+                break;
+            }
+            Poll poll = generatePoll(dup);
+            if (poll == null) {
+                break;
+            }
+
+            policy.resolve(poll);
+            currentPoll = poll;
+            saveCurrentPoll();
+            resolved++;
+        }
+
+        updateCurrentPoll(null);
+        return resolved;
+    }
+
     @Nullable
     public SweeperPoll getCurrentPoll() {
         lock.lock();
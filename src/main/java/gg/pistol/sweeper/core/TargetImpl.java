@@ -17,6 +17,8 @@
  */
 package gg.pistol.sweeper.core;
 
+import gg.pistol.sweeper.core.resource.ChannelResourceFile;
+import gg.pistol.sweeper.core.resource.PhysicalResourceFile;
 import gg.pistol.sweeper.core.resource.Resource;
 import gg.pistol.sweeper.core.resource.ResourceDirectory;
 import gg.pistol.sweeper.core.resource.ResourceFile;
@@ -24,6 +26,9 @@ import gg.pistol.sweeper.core.resource.ResourceFile;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,81 +40,70 @@ import javax.annotation.Nullable;
 
 import org.joda.time.DateTime;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.io.LimitInputStream;
 
 // package private
 class TargetImpl implements Target {
 
-    private final String name;
-    private final Type type;
-    @Nullable private final Resource resource;
-    @Nullable private final TargetImpl parent;
-
-    private final Collection<TargetImpl> children;
-
     /*
+     * The state of the target is stored in the node of the table, the target is only a view of the node created on
+     * demand (see TargetTable).
+     *
+     * The name is not stored (it is the path of the resource that can be long and it is created on demand by the
+     * resource implementations), only its hash code is kept.
+     *
      * The size, the total targets, the total targets that are files (totalTargetFiles), the hash and the modification
      * date are counted recursively by taking into account all the children.
+     *
+     * The modification date is kept as milliseconds (NO_DATE when missing) and the DateTime is created on demand.
      */
-    private long size;
-    private int totalTargets;
-    private int totalTargetFiles;
-    @Nullable private String hash;
-    @Nullable private DateTime modificationDate;
+    private final TargetTable table;
+    private final int id;
 
     /*
      * Partially expanded, partially sized and partially hashed are representing states when the expand(), computeSize()
      * or computeHash() operations have been called but exceptions prevented the full computation and the full states
-     * expanded, sized or hashed are false.
+     * expanded, sized or hashed are false. A directory with entries excluded from its children is also not expanded.
+     *
+     * The states are packed as bits of the flags, a target is updated by only one thread at a time.
      */
-    private boolean partiallyExpanded;
-    private boolean expanded;
-    private boolean partiallySized;
-    private boolean sized;
-    private boolean partiallyHashed;
-    private boolean hashed;
-    private boolean deleted;
+    private static final int PARTIALLY_EXPANDED = 1;
+    private static final int EXPANDED = 1 << 1;
+    private static final int PARTIALLY_SIZED = 1 << 2;
+    private static final int SIZED = 1 << 3;
+    private static final int PARTIALLY_HASHED = 1 << 4;
+    private static final int HASHED = 1 << 5;
+    private static final int DELETED = 1 << 6;
+
+    // The content was verified by a direct comparison with other files instead of being hashed (there is no hash).
+    private static final int CONTENT_COMPARED = 1 << 7;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
 
 
     TargetImpl(Set<? extends Resource> targetResources) {
+        this(new TargetTable(), TargetTable.ROOT);
         Preconditions.checkNotNull(targetResources);
         Preconditions.checkArgument(!targetResources.isEmpty(), "targetResources is empty");
 
-        name = "";
-        type = Type.ROOT;
-        resource = null;
-        parent = null;
-        children = new ArrayList<TargetImpl>();
-
-        partiallyExpanded = true;
-        expanded = true;
+        setFlag(PARTIALLY_EXPANDED, true);
+        setFlag(EXPANDED, true);
         doExpand(targetResources);
     }
 
-    TargetImpl(Resource targetResource, TargetImpl parent) {
-        Preconditions.checkNotNull(targetResource);
-        Preconditions.checkNotNull(parent);
-
-        name = targetResource.getName();
-        resource = targetResource;
-        this.parent = parent;
-
-        if (resource instanceof ResourceFile) {
-            type = Type.FILE;
-            children = Collections.emptyList();
-            partiallyExpanded = true;
-            expanded = true;
-        } else if (resource instanceof ResourceDirectory) {
-            type = Type.DIRECTORY;
-            children = new ArrayList<TargetImpl>();
-        } else {
-            throw new IllegalArgumentException("targetResource class <" + resource.getClass().getSimpleName() +
-                    "> should be a ResourceFile or a ResourceDirectory");
-        }
+    /**
+     * Create the view of the node {@code id} of the {@code table}.
+     */
+    TargetImpl(TargetTable table, int id) {
+        Preconditions.checkNotNull(table);
+        Preconditions.checkArgument(id >= TargetTable.ROOT);
+        this.table = table;
+        this.id = id;
     }
 
     /**
@@ -120,24 +114,43 @@ class TargetImpl implements Target {
         if (isPartiallyExpanded()) {
             return;
         }
-        partiallyExpanded = true;
-        expanded = true;
+        setFlag(PARTIALLY_EXPANDED, true);
+        setFlag(EXPANDED, true);
         listener.updateTarget(this);
 
-        ResourceDirectory.ResourceCollectionResponse response = ((ResourceDirectory) resource).getSubresources();
+        ResourceDirectory.ResourceCollectionResponse response = ((ResourceDirectory) getResource()).getSubresources();
         if (!response.getExceptions().isEmpty()) {
-            expanded = false;
+            setFlag(EXPANDED, false);
             for (Exception e : response.getExceptions()) {
                 listener.updateException(this, new SweeperException(e));
             }
         }
+        if (response instanceof ResourceDirectory.FilteredResourceCollectionResponse
+                && ((ResourceDirectory.FilteredResourceCollectionResponse) response).hasExcludedResources()) {
+            // Not an error, but the children are not the whole content of the directory.
+            setFlag(EXPANDED, false);
+        }
         doExpand(response.getResources());
     }
 
     private void doExpand(Collection<? extends Resource> targetResources) {
+        if (targetResources.isEmpty()) {
+            return;
+        }
         for (Resource res : targetResources) {
-            TargetImpl child = new TargetImpl(res, this);
-            children.add(child);
+            Preconditions.checkNotNull(res);
+            if (!(res instanceof ResourceFile) && !(res instanceof ResourceDirectory)) {
+                throw new IllegalArgumentException("targetResource class <" + res.getClass().getSimpleName() +
+                        "> should be a ResourceFile or a ResourceDirectory");
+            }
+        }
+
+        int childId = table.addChildren(id, targetResources);
+        for (Resource res : targetResources) {
+            if (res instanceof ResourceFile) {
+                table.setFlags(childId, (byte) (PARTIALLY_EXPANDED | EXPANDED));
+            }
+            childId++;
         }
     }
 
@@ -153,25 +166,25 @@ class TargetImpl implements Target {
         if (isPartiallySized()) {
             return;
         }
-        partiallySized = true;
+        setFlag(PARTIALLY_SIZED, true);
         listener.updateTarget(this);
 
-        sized = isExpanded();
+        setFlag(SIZED, isExpanded());
         try {
-            if (type == Type.FILE) {
-                totalTargets = 1;
-                totalTargetFiles = 1;
-                size = ((ResourceFile) resource).getSize();
+            if (getType() == Type.FILE) {
+                table.setTotalTargets(id, 1);
+                table.setTotalTargetFiles(id, 1);
+                table.setSize(id, ((ResourceFile) getResource()).getSize());
             } else {
                 boolean dirSized = computeDirectorySize();
-                sized = sized && dirSized;
+                setFlag(SIZED, isSized() && dirSized);
             }
         } catch (IllegalStateException e) {
-            partiallySized = false;
-            sized = false;
+            setFlag(PARTIALLY_SIZED, false);
+            setFlag(SIZED, false);
             throw e;
         } catch (Exception e) {
-            sized = false;
+            setFlag(SIZED, false);
             listener.updateException(this, new SweeperException(e));
         }
     }
@@ -180,9 +193,9 @@ class TargetImpl implements Target {
      * Compute the size of the directory and return whether all the children were sized.
      */
     private boolean computeDirectorySize() {
-        size = 0;
-        totalTargets = type == Type.ROOT ? 0 : 1;
-        totalTargetFiles = 0;
+        long size = 0;
+        int totalTargets = getType() == Type.ROOT ? 0 : 1;
+        int totalTargetFiles = 0;
         boolean ret = true;
 
         for (TargetImpl child : getChildren()) {
@@ -194,6 +207,9 @@ class TargetImpl implements Target {
                 ret = false;
             }
         }
+        table.setSize(id, size);
+        table.setTotalTargets(id, totalTargets);
+        table.setTotalTargetFiles(id, totalTargetFiles);
         return ret;
     }
 
@@ -204,6 +220,17 @@ class TargetImpl implements Target {
      */
     void computeHash(HashFunction hashFunction, OperationTrackingListener listener, AtomicBoolean abortFlag)
             throws SweeperAbortException {
+        computeHash(hashFunction, null, listener, abortFlag);
+    }
+
+    /**
+     * Compute the hash and the last modified date. The hash of a file is looked up in the {@code hashCache} before
+     * reading the file and it is stored in the cache after being computed.
+     *
+     * <p>The {@link #computeSize} method must have been called previously.
+     */
+    void computeHash(HashFunction hashFunction, @Nullable HashCache hashCache, OperationTrackingListener listener,
+                     AtomicBoolean abortFlag) throws SweeperAbortException {
         Preconditions.checkNotNull(hashFunction);
         Preconditions.checkNotNull(listener);
         Preconditions.checkNotNull(abortFlag);
@@ -211,75 +238,321 @@ class TargetImpl implements Target {
         if (isPartiallyHashed()) {
             return;
         }
-        partiallyHashed = true;
+        setFlag(PARTIALLY_HASHED, true);
         listener.updateTarget(this);
 
-        hashed = true;
+        setFlag(HASHED, true);
         try {
-            if (type == Type.FILE) {
-                computeFileHash(hashFunction, listener, abortFlag);
+            if (getType() == Type.FILE) {
+                computeFileHash(hashFunction, hashCache, listener, abortFlag);
             } else {
                 computeDirectoryHash(hashFunction, abortFlag);
             }
         } catch (SweeperAbortException e) {
-            partiallyHashed = false;
-            hashed = false;
+            setFlag(PARTIALLY_HASHED, false);
+            setFlag(HASHED, false);
+            throw e;
+        } catch (IllegalStateException e) {
+            setFlag(PARTIALLY_HASHED, false);
+            setFlag(HASHED, false);
+            throw e;
+        } catch (Exception e) {
+            setFlag(HASHED, false);
+            listener.updateException(this, new SweeperException(e));
+        }
+    }
+
+    /**
+     * Hash the content of a file progressively: continue hashing the file from where the previous round stopped until
+     * the prefix of {@code roundSize} bytes is hashed. The partial hash becomes the hash of the prefix (and of the tail
+     * window of {@code roundSize} bytes in case {@code tail} is {@code true}, which is meant for the first round).
+     *
+     * <p>In case the round covers the whole content then the full hash is computed instead and the partial hash will
+     * be the same as the full hash. The full hash computed later by {@link #computeHash} continues from the hashed
+     * prefix (in case the hash algorithm allows it) without reading the prefix again.
+     *
+     * <p>Before the first round the full hash of the file is looked up in the {@code hashCache}, when it is found the
+     * file is not read and it will be hashed.
+     *
+     * <p>In case of errors the target will be partially hashed (without being hashed) and it will not be hashed
+     * again by {@link #computeHash}.
+     *
+     * <p>The {@link #computeSize} method must have been called previously.
+     */
+    void computeHashRound(HashFunction hashFunction, @Nullable HashCache hashCache, long roundSize, boolean tail,
+                          OperationTrackingListener listener, AtomicBoolean abortFlag) throws SweeperAbortException {
+        Preconditions.checkNotNull(hashFunction);
+        Preconditions.checkArgument(roundSize > 0);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(abortFlag);
+        Preconditions.checkState(getType() == Type.FILE, "Not a file");
+        Preconditions.checkState(isSized(), "Not sized");
+        HashRounds rounds = table.getHashRounds(id);
+        if (isPartiallyHashed() || (rounds != null && rounds.partialHash != null && rounds.prefixSize >= roundSize)) {
+            return;
+        }
+
+        long coveredSize = tail ? 2L * roundSize : roundSize;
+        if (getSize() <= coveredSize) {
+            computeHash(hashFunction, hashCache, listener, abortFlag);
+            return;
+        }
+        listener.updateTarget(this);
+
+        try {
+            if ((rounds == null || rounds.partialHash == null) && hashCache != null && lookupHash(hashCache)) {
+                setFlag(PARTIALLY_HASHED, true);
+                setFlag(HASHED, true);
+                return;
+            }
+            computeFileHashRound(hashFunction, roundSize, tail, listener, abortFlag);
+        } catch (SweeperAbortException e) {
             throw e;
         } catch (IllegalStateException e) {
-            partiallyHashed = false;
-            hashed = false;
             throw e;
         } catch (Exception e) {
-            hashed = false;
+            setFlag(PARTIALLY_HASHED, true);
+            setFlag(HASHED, false);
+            releaseHashRounds();
             listener.updateException(this, new SweeperException(e));
         }
     }
 
-    private void computeFileHash(HashFunction hashFunction, OperationTrackingListener listener, AtomicBoolean abort)
+    private void computeFileHashRound(HashFunction hashFunction, long roundSize, boolean tail,
+                                      OperationTrackingListener listener, AtomicBoolean abortFlag)
             throws IOException, SweeperAbortException {
-        ResourceFile res = (ResourceFile) resource;
+        ResourceFile res = (ResourceFile) getResource();
+        HashRounds rounds = table.getHashRounds(id);
+        if (rounds == null) {
+            rounds = new HashRounds();
+            table.setHashRounds(id, rounds);
+        }
+        MessageDigest digest = rounds.prefixDigest != null ? rounds.prefixDigest : hashFunction.newResumableDigest();
+        long offset = rounds.prefixDigest != null ? rounds.prefixSize : 0;
+        byte[] roundHash;
 
-        modificationDate = res.getModificationDate();
         InputStream stream = res.getInputStream();
         try {
-            hash = getSize() + hashFunction.compute(stream, listener, abort);
+            if (digest == null) {
+                // The hash algorithm cannot continue from the previous round so the whole prefix is hashed again.
+                roundHash = hashFunction.compute(new LimitInputStream(stream, roundSize), listener, abortFlag);
+            } else {
+                ByteStreams.skipFully(stream, offset);
+                long length = roundSize - offset;
+                if (hashFunction.update(digest, stream, length, listener, abortFlag) != length) {
+                    throw new IOException("The file <" + getName() + "> is shorter than its size");
+                }
+                rounds.prefixDigest = digest;
+                roundHash = HashFunction.intermediateDigest(digest);
+            }
+            rounds.prefixSize = roundSize;
         } finally {
             Closeables.closeQuietly(stream);
         }
+
+        if (tail) {
+            InputStream tailStream = res.getInputStream();
+            try {
+                ByteStreams.skipFully(tailStream, getSize() - roundSize);
+                // The tail is not tracked because the stream contains also the prefix hash, the caller accounts for
+                // the tail bytes when the round of the file is done.
+                roundHash = hashFunction.compute(new SequenceInputStream(new ByteArrayInputStream(roundHash),
+                        new LimitInputStream(tailStream, roundSize)), OperationTrackingListener.NOOP_LISTENER, abortFlag);
+            } finally {
+                Closeables.closeQuietly(tailStream);
+            }
+        }
+        rounds.partialHash = Fingerprint.of(getSize(), roundHash);
+    }
+
+    /**
+     * Release the state kept between the hash rounds (for the files that are no longer duplicate candidates).
+     */
+    void releaseHashRounds() {
+        HashRounds rounds = table.getHashRounds(id);
+        if (rounds != null) {
+            rounds.prefixDigest = null;
+        }
+    }
+
+    private void computeFileHash(HashFunction hashFunction, @Nullable HashCache hashCache,
+                                 OperationTrackingListener listener, AtomicBoolean abort)
+            throws IOException, SweeperAbortException {
+        if (hashCache != null && lookupHash(hashCache)) {
+            return;
+        }
+        ResourceFile res = (ResourceFile) getResource();
+
+        DateTime date = res.getModificationDate();
+        long modificationDate = date.getMillis();
+        table.setModificationDate(id, modificationDate);
+        HashRounds rounds = table.getHashRounds(id);
+        Fingerprint hash;
+        if (rounds != null && rounds.prefixDigest != null) {
+            hash = computeFileHashRest(rounds, hashFunction, listener, abort);
+        } else if (hashFunction.isChannelPreferred() && res instanceof ChannelResourceFile) {
+            FileChannel channel = ((ChannelResourceFile) res).getChannel();
+            try {
+                hash = Fingerprint.of(getSize(), hashFunction.compute(channel, listener, abort));
+            } finally {
+                Closeables.closeQuietly(channel);
+            }
+        } else {
+            InputStream stream = res.getInputStream();
+            try {
+                hash = Fingerprint.of(getSize(), hashFunction.compute(stream, listener, abort));
+            } finally {
+                Closeables.closeQuietly(stream);
+            }
+        }
+        if (hashCache != null) {
+            hashCache.put(getName(), modificationDate, getFileKey(res), hash);
+        }
+        table.setHash(id, hash);
+        // The partial hash is no longer needed, the full hash takes its place.
+        table.setHashRounds(id, null);
+    }
+
+    /**
+     * Compute the full hash by continuing the digest of the prefix hashed by the hash rounds.
+     */
+    private Fingerprint computeFileHashRest(HashRounds rounds, HashFunction hashFunction,
+                                            OperationTrackingListener listener, AtomicBoolean abort)
+            throws IOException, SweeperAbortException {
+        ResourceFile res = (ResourceFile) getResource();
+        MessageDigest digest = rounds.prefixDigest;
+        long offset = rounds.prefixSize;
+        releaseHashRounds();
+
+        if (hashFunction.isChannelPreferred() && res instanceof ChannelResourceFile) {
+            FileChannel channel = ((ChannelResourceFile) res).getChannel();
+            try {
+                channel.position(offset);
+                hashFunction.update(digest, channel, listener, abort);
+            } finally {
+                Closeables.closeQuietly(channel);
+            }
+        } else {
+            InputStream stream = res.getInputStream();
+            try {
+                ByteStreams.skipFully(stream, offset);
+                hashFunction.update(digest, stream, Long.MAX_VALUE, listener, abort);
+            } finally {
+                Closeables.closeQuietly(stream);
+            }
+        }
+        return Fingerprint.of(getSize(), digest.digest());
+    }
+
+    @Nullable
+    private static Object getFileKey(ResourceFile res) throws IOException {
+        return res instanceof PhysicalResourceFile ? ((PhysicalResourceFile) res).getFileKey() : null;
+    }
+
+    /**
+     * Retrieve the hash of the file from the {@code hashCache}.
+     *
+     * @return {@code true} in case the hash was found, in this case the hash and the modification date are set
+     */
+    private boolean lookupHash(HashCache hashCache) throws IOException {
+        ResourceFile res = (ResourceFile) getResource();
+        DateTime date = res.getModificationDate();
+        Fingerprint cached = hashCache.get(getName(), getSize(), date.getMillis(), getFileKey(res));
+        if (cached == null) {
+            return false;
+        }
+        table.setModificationDate(id, date.getMillis());
+        table.setHash(id, cached);
+        table.setHashRounds(id, null);
+        return true;
     }
 
     private void computeDirectoryHash(HashFunction hashFunction, AtomicBoolean abortFlag)
             throws IOException, SweeperAbortException, SweeperException {
-        modificationDate = null;
-        List<String> hashes = new ArrayList<String>();
+        long modificationDate = NO_DATE;
+        List<Fingerprint> hashes = new ArrayList<Fingerprint>();
 
         for (TargetImpl child : getChildren()) {
             Preconditions.checkState(child.isPartiallyHashed(), "All the children need to be partially hashed");
             if (!child.isHashed()) {
                 throw new SweeperException("Cannot compute hash because at least one child resource could not be hashed");
             }
+            if (child.isContentCompared()) {
+                throw new SweeperException("Cannot compute hash because at least one child was compared without a hash");
+            }
             if (child.getSize() == 0) {
                 continue;
             }
-            if (modificationDate == null || (child.getModificationDate() != null && child.getModificationDate().isAfter(modificationDate))) {
-                modificationDate = child.getModificationDate();
+            DateTime childDate = child.getModificationDate();
+            if (childDate != null && (modificationDate == NO_DATE || childDate.getMillis() > modificationDate)) {
+                modificationDate = childDate.getMillis();
             }
             hashes.add(child.getHash());
         }
+        table.setModificationDate(id, modificationDate);
         if (hashes.size() == 1) {
-            hash = hashes.get(0);
+            table.setHash(id, hashes.get(0));
         } else {
+            // The children order must not matter, the sorted binary fingerprints are hashed.
             Collections.sort(hashes);
-            ByteArrayInputStream stream = new ByteArrayInputStream(Joiner.on("-").join(hashes).getBytes());
-            hash = getSize() + hashFunction.compute(stream, OperationTrackingListener.NOOP_LISTENER, abortFlag);
+            table.setHash(id, Fingerprint.of(getSize(), hashFunction.compute(hashes, abortFlag)));
         }
     }
 
+    /**
+     * Reuse the hash of another file that shares the same content storage (a hard link to the same file) instead of
+     * reading the content again.
+     */
+    void copyHash(TargetImpl other, OperationTrackingListener listener) {
+        Preconditions.checkNotNull(other);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkState(getType() == Type.FILE && other.getType() == Type.FILE, "Not a file");
+        Preconditions.checkState(other.isPartiallyHashed(), "The other file needs to be partially hashed");
+        Preconditions.checkState(!other.isContentCompared(), "The other file has no hash");
+        Preconditions.checkState(isSized(), "Not sized");
+        if (isPartiallyHashed()) {
+            return;
+        }
+        listener.updateTarget(this);
+        setFlag(PARTIALLY_HASHED, true);
+        setFlag(HASHED, other.isHashed());
+        table.setHash(id, other.table.getHash(other.id));
+        table.setModificationDate(id, other.table.getModificationDate(other.id));
+    }
+
+    /**
+     * Mark the file as having its content verified by a direct comparison with other files instead of being hashed.
+     * The target becomes hashed and {@link #isContentCompared content compared}, it has no hash value.
+     */
+    void setContentCompared(DateTime modificationDate) {
+        Preconditions.checkNotNull(modificationDate);
+        Preconditions.checkState(getType() == Type.FILE, "Not a file");
+        setFlag(PARTIALLY_HASHED, true);
+        setFlag(HASHED, true);
+        setFlag(CONTENT_COMPARED, true);
+        table.setHash(id, null);
+        table.setHashRounds(id, null);
+        table.setModificationDate(id, modificationDate.getMillis());
+    }
+
+    /**
+     * Mark the file as partially hashed (without being hashed) because its content could not be read for the direct
+     * comparison.
+     */
+    void setContentCompareFailed(Exception e, OperationTrackingListener listener) {
+        Preconditions.checkNotNull(e);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkState(getType() == Type.FILE, "Not a file");
+        setFlag(PARTIALLY_HASHED, true);
+        setFlag(HASHED, false);
+        listener.updateException(this, new SweeperException(e));
+    }
+
     void delete(OperationTrackingListener listener) {
         Preconditions.checkNotNull(listener);
         Preconditions.checkState(getType() != Type.ROOT);
 
-        if (getType() == Type.DIRECTORY && ((ResourceDirectory) resource).deleteOnlyEmpty()) {
+        if (getType() == Type.DIRECTORY && ((ResourceDirectory) getResource()).deleteOnlyEmpty()) {
             Preconditions.checkState(isExpanded());
             for (TargetImpl t : getChildren()) {
                 Preconditions.checkState(t.isDeleted());
@@ -288,16 +561,16 @@ class TargetImpl implements Target {
 
         listener.updateTarget(this);
         try {
-            resource.delete();
+            getResource().delete();
         } catch (Exception e) {
             listener.updateException(this, new SweeperException(e));
         }
-        deleted = true;
+        setFlag(DELETED, true);
     }
 
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return table.getNameHashCode(id);
     }
 
     @Override
@@ -305,94 +578,192 @@ class TargetImpl implements Target {
         if (obj == null || getClass() != obj.getClass()) {
             return false;
         }
+        if (this == obj) {
+            return true;
+        }
         TargetImpl other = (TargetImpl) obj;
-        return name.equals(other.name);
+        if (table == other.table && id == other.id) {
+            return true;
+        }
+        return hashCode() == other.hashCode() && getName().equals(other.getName());
     }
 
     @Override
     public String toString() {
-        return Objects.toStringHelper(this).add("name", name).toString();
+        return Objects.toStringHelper(this).add("name", getName()).toString();
     }
 
     public int compareTo(Target other) {
         Preconditions.checkNotNull(other);
-        return ComparisonChain.start().compare(name, other.getName()).result();
+        return ComparisonChain.start().compare(getName(), other.getName()).result();
     }
 
     public String getName() {
-        return name;
+        Resource resource = getResource();
+        return resource != null ? resource.getName() : "";
     }
 
     public Type getType() {
-        return type;
+        Resource resource = getResource();
+        if (resource == null) {
+            return Type.ROOT;
+        }
+        return resource instanceof ResourceFile ? Type.FILE : Type.DIRECTORY;
     }
 
     @Nullable
     public Resource getResource() {
-        return resource;
+        return table.getResource(id);
     }
 
     @Nullable
     TargetImpl getParent() {
-        return parent;
+        return table.getParentTarget(id);
     }
 
     Collection<TargetImpl> getChildren() {
-        return children;
+        return table.getChildTargets(id);
+    }
+
+    int getChildCount() {
+        return table.getChildCount(id);
+    }
+
+    TargetTable getTable() {
+        return table;
+    }
+
+    /**
+     * Leave this child of the root out of the tree of targets (it was found also as a descendant of another child of
+     * the root).
+     */
+    void detach() {
+        table.detach(id);
     }
 
     public long getSize() {
         Preconditions.checkState(isPartiallySized(), "not computed");
-        return size;
+        return table.getSize(id);
     }
 
     int getTotalTargets() {
         Preconditions.checkState(isPartiallySized(), "not computed");
-        return totalTargets;
+        return table.getTotalTargets(id);
     }
 
     int getTotalTargetFiles() {
         Preconditions.checkState(isPartiallySized(), "not computed");
-        return totalTargetFiles;
+        return table.getTotalTargetFiles(id);
     }
 
-    String getHash() {
+    /**
+     * Getter for the hash. The targets {@link #isContentCompared content compared} have no hash.
+     */
+    Fingerprint getHash() {
         Preconditions.checkState(isHashed(), "not computed");
-        return hash;
+        Preconditions.checkState(!isContentCompared(), "content compared without a hash");
+        return table.getHash(id);
+    }
+
+    /**
+     * Getter for the partial hash, in case the target is hashed the full hash is returned.
+     */
+    Fingerprint getPartialHash() {
+        HashRounds rounds = table.getHashRounds(id);
+        Preconditions.checkState(isHashed() || (rounds != null && rounds.partialHash != null), "not computed");
+        Preconditions.checkState(!isContentCompared(), "content compared without a hash");
+        return isHashed() ? table.getHash(id) : rounds.partialHash;
     }
 
     @Nullable
     public DateTime getModificationDate() {
         Preconditions.checkState(isHashed(), "not computed");
-        return modificationDate;
+        long modificationDate = table.getModificationDate(id);
+        return modificationDate != NO_DATE ? new DateTime(modificationDate) : null;
+    }
+
+    private boolean hasFlag(int flag) {
+        return (table.getFlags(id) & flag) != 0;
+    }
+
+    private void setFlag(int flag, boolean value) {
+        int flags = table.getFlags(id);
+        table.setFlags(id, (byte) (value ? flags | flag : flags & ~flag));
+    }
+
+    /**
+     * The pre-order number of the target in the tree of targets or 0 in case the targets are not yet numbered (the
+     * targets are numbered by the compaction of the table after the traversal).
+     */
+    int getOrder() {
+        return table.getOrder(id);
+    }
+
+    /**
+     * The greatest pre-order number of the descendants of the target (the descendants have their numbers in the
+     * interval (order, lastDescendantOrder]) or 0 in case the targets are not yet numbered.
+     */
+    int getLastDescendantOrder() {
+        return table.getLastDescendantOrder(id);
+    }
+
+    /**
+     * Check whether this target is a (strict) ancestor of the {@code other} target. Both targets need to be numbered.
+     */
+    boolean isAncestorOf(TargetImpl other) {
+        Preconditions.checkNotNull(other);
+        int order = getOrder();
+        int otherOrder = other.getOrder();
+        Preconditions.checkState(order > 0 && otherOrder > 0, "not numbered");
+        return order < otherOrder && otherOrder <= getLastDescendantOrder();
     }
 
     boolean isPartiallyExpanded() {
-        return partiallyExpanded;
+        return hasFlag(PARTIALLY_EXPANDED);
     }
 
     boolean isExpanded() {
-        return expanded;
+        return hasFlag(EXPANDED);
     }
 
     boolean isPartiallySized() {
-        return partiallySized;
+        return hasFlag(PARTIALLY_SIZED);
     }
 
     boolean isSized() {
-        return sized;
+        return hasFlag(SIZED);
     }
 
     boolean isPartiallyHashed() {
-        return partiallyHashed;
+        return hasFlag(PARTIALLY_HASHED);
     }
 
     boolean isHashed() {
-        return hashed;
+        return hasFlag(HASHED);
+    }
+
+    /**
+     * Check whether the content was verified with {@link #setContentCompared} instead of being hashed.
+     */
+    boolean isContentCompared() {
+        return hasFlag(CONTENT_COMPARED);
     }
 
     boolean isDeleted() {
-        return deleted;
+        return hasFlag(DELETED);
+    }
+
+    /**
+     * The state kept between the hash rounds of a file.
+     */
+    static class HashRounds {
+
+        // The hash of the prefix (and optionally the tail window) of a file's content computed by the hash rounds.
+        @Nullable private Fingerprint partialHash;
+
+        // The running digest of the prefix of prefixSize bytes hashed by the hash rounds.
+        @Nullable private MessageDigest prefixDigest;
+        private long prefixSize;
     }
 
 }
@@ -0,0 +1,514 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import gg.pistol.sweeper.core.resource.Resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Table of the nodes of a tree of targets stored in parallel arrays (a column for each property of the nodes) instead
+ * of an object per node. The nodes are identified by integer ids and the {@link TargetImpl} objects are only views of
+ * the nodes created on demand.
+ *
+ * <p>The nodes are added while traversing the resources, the children of a node are added together with consecutive
+ * ids. After the traversal the table is compacted by {@link #compact} into a new table with the nodes numbered in
+ * pre-order: the descendants of a node have the ids in the interval (id, last descendant id] and the decreasing order
+ * of the ids is a bottom-up traversal of the tree. The targets created before the compaction follow their nodes to
+ * the new table.
+ *
+ * <p>The columns are split in pages that are not moved when the table grows, so a node can be updated while other
+ * nodes are added. A node is updated by only one thread at a time.
+ *
+ * @author Bogdan Pistol
+ */
+// package private
+@ThreadSafe
+class TargetTable {
+
+    /**
+     * The id of the root node (the id 0 means no node).
+     */
+    static final int ROOT = 1;
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Replaced when the table grows or when the nodes are moved by the compaction.
+    private volatile Storage storage;
+
+    @GuardedBy("this") private int length;
+
+    // The children of the root found as descendants of other nodes, they are left out of the tree by the compaction.
+    @GuardedBy("this") private final Set<Integer> detached = new HashSet<Integer>();
+
+
+    /**
+     * Create a table with only the root node.
+     */
+    TargetTable() {
+        storage = new Storage(this, new Page[0], null, false, new ConcurrentHashMap<Integer, TargetImpl.HashRounds>());
+        ensureCapacity(ROOT);
+        length = ROOT;
+    }
+
+    private TargetTable(Page[] pages, int length, ConcurrentMap<Integer, TargetImpl.HashRounds> rounds) {
+        storage = new Storage(this, pages, null, true, rounds);
+        this.length = length;
+    }
+
+    /**
+     * Add the children of the {@code parent} node.
+     *
+     * @return the id of the first child, the other children have the next ids
+     */
+    int addChildren(int parent, Collection<? extends Resource> resources) {
+        Preconditions.checkNotNull(resources);
+        int[] nameHashCodes = new int[resources.size()];
+        int i = 0;
+        for (Resource res : resources) {
+            nameHashCodes[i++] = res.getName().hashCode();
+        }
+
+        synchronized (this) {
+            Preconditions.checkState(storage.ids == null && !storage.preOrder, "compacted");
+            Preconditions.checkArgument(parent >= ROOT && parent <= length);
+            int first = length + 1;
+            ensureCapacity(length + resources.size());
+            Storage s = storage;
+
+            int id = first;
+            for (Resource res : resources) {
+                Page page = s.pages[id >>> PAGE_BITS];
+                int slot = id & PAGE_MASK;
+                page.resources[slot] = res;
+                page.parents[slot] = parent;
+                page.nameHashCodes[slot] = nameHashCodes[id - first];
+                id++;
+            }
+            Page page = s.pages[parent >>> PAGE_BITS];
+            page.links[parent & PAGE_MASK] = first;
+            page.childCounts[parent & PAGE_MASK] = resources.size();
+            length += resources.size();
+            return first;
+        }
+    }
+
+    @GuardedBy("this")
+    private void ensureCapacity(int maxId) {
+        Storage s = storage;
+        int pageCount = (maxId >>> PAGE_BITS) + 1;
+        if (pageCount <= s.pages.length) {
+            return;
+        }
+        Page[] pages = Arrays.copyOf(s.pages, Math.max(pageCount, 2 * s.pages.length));
+        for (int i = s.pages.length; i < pages.length; i++) {
+            pages[i] = new Page();
+        }
+        storage = new Storage(this, pages, null, false, s.rounds);
+    }
+
+    /**
+     * Leave a child of the root out of the tree (in case it is also a descendant of another child of the root).
+     */
+    synchronized void detach(int id) {
+        Preconditions.checkState(storage.ids == null && !storage.preOrder, "compacted");
+        Preconditions.checkArgument(getParent(id) == ROOT, "not a child of the root");
+        detached.add(id);
+    }
+
+    /**
+     * Move the nodes to a new table with the nodes numbered in pre-order. The detached children of the root and their
+     * descendants are moved after the tree (they are no longer reachable from the root).
+     *
+     * <p>The nodes must not be updated concurrently with the compaction.
+     *
+     * @return the new table
+     */
+    TargetTable compact() {
+        Storage s;
+        int n;
+        List<Integer> detachedRoots;
+        synchronized (this) {
+            s = storage;
+            Preconditions.checkState(s.ids == null && !s.preOrder, "compacted");
+            n = length;
+            detachedRoots = new ArrayList<Integer>(detached);
+        }
+        Collections.sort(detachedRoots);
+
+        // The new ids of the nodes and the old ids in the order of the new ids.
+        int[] newIds = new int[n + 1];
+        int[] oldIds = new int[n + 1];
+        int next = number(s, ROOT, 0, newIds, oldIds);
+        for (int root : detachedRoots) {
+            next = number(s, root, next, newIds, oldIds);
+        }
+        Preconditions.checkState(next == n, "unreachable nodes");
+
+        Page[] pages = new Page[(n >>> PAGE_BITS) + 1];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new Page();
+        }
+        for (int id = ROOT; id <= n; id++) {
+            int old = oldIds[id];
+            Page from = s.pages[old >>> PAGE_BITS];
+            int fromSlot = old & PAGE_MASK;
+            Page to = pages[id >>> PAGE_BITS];
+            int slot = id & PAGE_MASK;
+            to.resources[slot] = from.resources[fromSlot];
+            to.parents[slot] = newIds[from.parents[fromSlot]];
+            to.nameHashCodes[slot] = from.nameHashCodes[fromSlot];
+            to.childCounts[slot] = from.childCounts[fromSlot];
+            to.sizes[slot] = from.sizes[fromSlot];
+            to.totalTargets[slot] = from.totalTargets[fromSlot];
+            to.totalTargetFiles[slot] = from.totalTargetFiles[fromSlot];
+            to.modificationDates[slot] = from.modificationDates[fromSlot];
+            to.flags[slot] = from.flags[fromSlot];
+            to.hashes[slot] = from.hashes[fromSlot];
+            to.links[slot] = id;
+        }
+        pages[0].childCounts[ROOT] -= detachedRoots.size();
+
+        // The children have greater ids than their parents, so the last descendant of a node is final when the node
+        // is reached in the decreasing order of the ids. The detached nodes are not descendants of the root.
+        Set<Integer> outOfTree = new HashSet<Integer>();
+        for (int root : detachedRoots) {
+            outOfTree.add(newIds[root]);
+        }
+        for (int id = n; id > ROOT; id--) {
+            if (outOfTree.contains(id)) {
+                continue;
+            }
+            Page page = pages[id >>> PAGE_BITS];
+            int parent = page.parents[id & PAGE_MASK];
+            Page parentPage = pages[parent >>> PAGE_BITS];
+            int last = page.links[id & PAGE_MASK];
+            if (parentPage.links[parent & PAGE_MASK] < last) {
+                parentPage.links[parent & PAGE_MASK] = last;
+            }
+        }
+
+        ConcurrentMap<Integer, TargetImpl.HashRounds> rounds = new ConcurrentHashMap<Integer, TargetImpl.HashRounds>();
+        for (Map.Entry<Integer, TargetImpl.HashRounds> entry : s.rounds.entrySet()) {
+            rounds.put(newIds[entry.getKey()], entry.getValue());
+        }
+
+        TargetTable ret = new TargetTable(pages, n, rounds);
+        storage = new Storage(ret, pages, newIds, true, rounds);
+        return ret;
+    }
+
+    /**
+     * Number in pre-order the node {@code root} and its descendants starting after the number {@code last}.
+     *
+     * @return the last assigned number
+     */
+    private static int number(Storage s, int root, int last, int[] newIds, int[] oldIds) {
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = root;
+        int next = last;
+
+        while (size > 0) {
+            int id = stack[--size];
+            newIds[id] = ++next;
+            oldIds[next] = id;
+
+            Page page = s.pages[id >>> PAGE_BITS];
+            int count = page.childCounts[id & PAGE_MASK];
+            int first = page.links[id & PAGE_MASK];
+            if (size + count > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(2 * stack.length, size + count));
+            }
+            // The children are pushed in reverse order in order to be numbered in their order.
+            for (int child = first + count - 1; child >= first; child--) {
+                if (id != ROOT || !isDetached(s, child)) {
+                    stack[size++] = child;
+                }
+            }
+        }
+        return next;
+    }
+
+    private static boolean isDetached(Storage s, int id) {
+        TargetTable table = s.table;
+        synchronized (table) {
+            return table.detached.contains(id);
+        }
+    }
+
+    /**
+     * Create the target of the node {@code id}.
+     */
+    TargetImpl getTarget(int id) {
+        return new TargetImpl(this, id);
+    }
+
+    @Nullable
+    TargetImpl getParentTarget(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        int parent = s.pages[node >>> PAGE_BITS].parents[node & PAGE_MASK];
+        return parent != 0 ? s.table.getTarget(parent) : null;
+    }
+
+    /**
+     * Create the targets of the children of the node {@code id}.
+     */
+    List<TargetImpl> getChildTargets(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        Page page = s.pages[node >>> PAGE_BITS];
+        int count = page.childCounts[node & PAGE_MASK];
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<TargetImpl> ret = new ArrayList<TargetImpl>(count);
+        if (s.preOrder) {
+            // In pre-order the first child follows its parent and the next sibling follows the last descendant.
+            for (int child = node + 1; ret.size() < count; child = getLastDescendant(s, child) + 1) {
+                ret.add(s.table.getTarget(child));
+            }
+        } else {
+            int first = page.links[node & PAGE_MASK];
+            for (int child = first; child < first + count; child++) {
+                if (node != ROOT || !isDetached(s, child)) {
+                    ret.add(s.table.getTarget(child));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static int getLastDescendant(Storage s, int node) {
+        return s.pages[node >>> PAGE_BITS].links[node & PAGE_MASK];
+    }
+
+    /**
+     * The number of the children of the node {@code id} (it includes the detached children of the root before the
+     * compaction).
+     */
+    int getChildCount(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].childCounts[node & PAGE_MASK];
+    }
+
+    /**
+     * The number of the node {@code id} in pre-order or 0 in case the nodes are not yet numbered.
+     */
+    int getOrder(int id) {
+        Storage s = storage;
+        return s.preOrder ? s.node(id) : 0;
+    }
+
+    /**
+     * The greatest number in pre-order of the descendants of the node {@code id} (or its own number in case it has no
+     * descendants) or 0 in case the nodes are not yet numbered.
+     */
+    int getLastDescendantOrder(int id) {
+        Storage s = storage;
+        return s.preOrder ? getLastDescendant(s, s.node(id)) : 0;
+    }
+
+    /**
+     * The id of the last node in this table.
+     */
+    synchronized int getLength() {
+        return length;
+    }
+
+    int getParent(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].parents[node & PAGE_MASK];
+    }
+
+    @Nullable
+    Resource getResource(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].resources[node & PAGE_MASK];
+    }
+
+    int getNameHashCode(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].nameHashCodes[node & PAGE_MASK];
+    }
+
+    long getSize(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].sizes[node & PAGE_MASK];
+    }
+
+    void setSize(int id, long size) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].sizes[node & PAGE_MASK] = size;
+    }
+
+    int getTotalTargets(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].totalTargets[node & PAGE_MASK];
+    }
+
+    void setTotalTargets(int id, int totalTargets) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].totalTargets[node & PAGE_MASK] = totalTargets;
+    }
+
+    int getTotalTargetFiles(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].totalTargetFiles[node & PAGE_MASK];
+    }
+
+    void setTotalTargetFiles(int id, int totalTargetFiles) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].totalTargetFiles[node & PAGE_MASK] = totalTargetFiles;
+    }
+
+    long getModificationDate(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].modificationDates[node & PAGE_MASK];
+    }
+
+    void setModificationDate(int id, long modificationDate) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].modificationDates[node & PAGE_MASK] = modificationDate;
+    }
+
+    byte getFlags(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].flags[node & PAGE_MASK];
+    }
+
+    void setFlags(int id, byte flags) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].flags[node & PAGE_MASK] = flags;
+    }
+
+    @Nullable
+    Fingerprint getHash(int id) {
+        Storage s = storage;
+        int node = s.node(id);
+        return s.pages[node >>> PAGE_BITS].hashes[node & PAGE_MASK];
+    }
+
+    void setHash(int id, @Nullable Fingerprint hash) {
+        Storage s = storage;
+        int node = s.node(id);
+        s.pages[node >>> PAGE_BITS].hashes[node & PAGE_MASK] = hash;
+    }
+
+    @Nullable
+    TargetImpl.HashRounds getHashRounds(int id) {
+        Storage s = storage;
+        return s.rounds.get(s.node(id));
+    }
+
+    void setHashRounds(int id, @Nullable TargetImpl.HashRounds rounds) {
+        Storage s = storage;
+        if (rounds != null) {
+            s.rounds.put(s.node(id), rounds);
+        } else {
+            s.rounds.remove(s.node(id));
+        }
+    }
+
+    /**
+     * The pages of the columns and the mapping of the ids to the nodes of the pages.
+     */
+    private static class Storage {
+
+        // The table that owns the pages (the ids of its nodes are the indexes in the pages).
+        private final TargetTable table;
+        private final Page[] pages;
+
+        // The new ids of the nodes moved by the compaction to another table or null.
+        @Nullable private final int[] ids;
+
+        // The nodes of the pages are numbered in pre-order.
+        private final boolean preOrder;
+
+        // The state of the hash rounds, only for the files that are hashed in rounds.
+        private final ConcurrentMap<Integer, TargetImpl.HashRounds> rounds;
+
+        private Storage(TargetTable table, Page[] pages, @Nullable int[] ids, boolean preOrder,
+                        ConcurrentMap<Integer, TargetImpl.HashRounds> rounds) {
+            this.table = table;
+            this.pages = pages;
+            this.ids = ids;
+            this.preOrder = preOrder;
+            this.rounds = rounds;
+        }
+
+        private int node(int id) {
+            return ids != null ? ids[id] : id;
+        }
+    }
+
+    /**
+     * A page of the columns.
+     */
+    private static class Page {
+
+        private final Resource[] resources = new Resource[PAGE_SIZE];
+        private final int[] parents = new int[PAGE_SIZE];
+        private final int[] nameHashCodes = new int[PAGE_SIZE];
+        private final int[] childCounts = new int[PAGE_SIZE];
+
+        // The id of the first child before the compaction and the id of the last descendant after the compaction.
+        private final int[] links = new int[PAGE_SIZE];
+
+        private final long[] sizes = new long[PAGE_SIZE];
+        private final int[] totalTargets = new int[PAGE_SIZE];
+        private final int[] totalTargetFiles = new int[PAGE_SIZE];
+        private final long[] modificationDates = new long[PAGE_SIZE];
+        private final byte[] flags = new byte[PAGE_SIZE];
+        private final Fingerprint[] hashes = new Fingerprint[PAGE_SIZE];
+    }
+
+}
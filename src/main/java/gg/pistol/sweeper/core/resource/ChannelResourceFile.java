@@ -0,0 +1,39 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A resource file whose content can also be read through a {@link FileChannel}.
+ *
+ * @author Bogdan Pistol
+ */
+public interface ChannelResourceFile extends ResourceFile {
+
+    /**
+     * Open a {@link FileChannel} that reads the resource content.
+     *
+     * @return the resource channel positioned at the beginning of the content
+     * @throws IOException
+     *         if the underlying implementation experiences I/O exceptions while opening the channel
+     */
+    FileChannel getChannel() throws IOException;
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A resource file that can also describe the underlying file and where its content is stored. The resource files
+ * that do not implement it are treated as having no file key, an unknown device and no physical order.
+ *
+ * @author Bogdan Pistol
+ */
+public interface PhysicalResourceFile extends ResourceFile {
+
+    /**
+     * Retrieve an object that uniquely identifies the underlying file (for example the device and the inode). Two
+     * resources with equal file keys are the same file. The {@link Object#toString()} representation of the key must
+     * be stable across runs.
+     *
+     * @return the file key or {@code null} in case it is not available
+     * @throws IOException
+     *         if the underlying implementation experiences I/O exceptions while getting the file key
+     */
+    @Nullable
+    Object getFileKey() throws IOException;
+
+    /**
+     * Retrieve the storage device that holds the resource content.
+     *
+     * @return the device or {@code null} in case it is not known
+     * @throws IOException
+     *         if the underlying implementation experiences I/O exceptions while getting the device
+     */
+    @Nullable
+    ResourceDevice getDevice() throws IOException;
+
+    /**
+     * Retrieve a locality hint for the position of the resource content on its {@link #getDevice() device} (e.g. the
+     * inode number). Reading the resources of a device in the increasing order of this value reduces the seeks of
+     * rotational devices.
+     *
+     * @return the physical order or {@code 0} in case it is not known
+     * @throws IOException
+     *         if the underlying implementation experiences I/O exceptions while getting the physical order
+     */
+    long getPhysicalOrder() throws IOException;
+
+}
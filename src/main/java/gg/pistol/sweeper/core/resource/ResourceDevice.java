@@ -0,0 +1,46 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+/**
+ * The storage device that holds the content of resources. It is used to schedule the reading of the resources per
+ * device.
+ *
+ * <p>The implementations must implement {@link Object#equals} and {@link Object#hashCode} so that the resources stored
+ * on the same device have equal devices.
+ *
+ * @author Bogdan Pistol
+ */
+public interface ResourceDevice {
+
+    /**
+     * Getter for the name of the device.
+     *
+     * @return the device name
+     */
+    String getName();
+
+    /**
+     * Determine if the device is rotational (e.g. a hard disk drive) and it performs best when it is read sequentially
+     * by a single reader.
+     *
+     * @return {@code true} if the device is rotational
+     */
+    boolean isRotational();
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileStore;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+/**
+ * File-system device implementation that identifies the device of a file by its device ID, or by its file store when
+ * the device ID is not available.
+ *
+ * <p>The file store of a device identified by its ID is looked up only when the name or the rotational property are
+ * needed (looking up the file store of a file is expensive). The rotational property is read from the Linux sysfs
+ * ({@code /sys/class/block/<device>/queue/rotational}), on other systems the devices are considered non-rotational.
+ *
+ * @author Bogdan Pistol
+ */
+@ThreadSafe
+public class ResourceDeviceFs implements ResourceDevice {
+
+    private static final File SYS_BLOCK = new File("/sys/class/block");
+
+    // The device ID or null in case the device is identified by the name of its file store.
+    @Nullable private final Object id;
+
+    // A file stored on the device used to look up the file store on demand (null after the lookup).
+    @GuardedBy("this") @Nullable private Path path;
+
+    @GuardedBy("this") private String name;
+    @GuardedBy("this") private boolean rotational;
+
+
+    ResourceDeviceFs(String name, boolean rotational) {
+        Preconditions.checkNotNull(name);
+        id = null;
+        this.name = name;
+        this.rotational = rotational;
+    }
+
+    ResourceDeviceFs(Object id, Path path) {
+        Preconditions.checkNotNull(id);
+        Preconditions.checkNotNull(path);
+        this.id = id;
+        this.path = path;
+    }
+
+    /**
+     * Retrieve the device that stores the {@code file}.
+     */
+    static ResourceDeviceFs of(File file) throws IOException {
+        Preconditions.checkNotNull(file);
+        Path path = file.toPath();
+        try {
+            Object id = java.nio.file.Files.getAttribute(path, "unix:dev");
+            if (id != null) {
+                return new ResourceDeviceFs(id, path);
+            }
+        } catch (UnsupportedOperationException e) {
+            // the device ID is not available, the device is identified by its file store
+        } catch (IllegalArgumentException e) {
+            // the device ID is not available, the device is identified by its file store
+        }
+        FileStore store = java.nio.file.Files.getFileStore(path);
+        return new ResourceDeviceFs(store.name(), isRotational(SYS_BLOCK, store.name()));
+    }
+
+    private synchronized void lookupFileStore() {
+        if (path == null) {
+            return;
+        }
+        try {
+            FileStore store = java.nio.file.Files.getFileStore(path);
+            name = store.name();
+            rotational = isRotational(SYS_BLOCK, name);
+        } catch (IOException e) {
+            // the file is no longer available, the device remains known only by its ID
+            name = id.toString();
+        }
+        path = null;
+    }
+
+    /**
+     * Determine from the sysfs block directory if the device with the provided name (e.g. "/dev/sda1") is rotational.
+     * For partitions the rotational property of the parent device is used.
+     */
+    static boolean isRotational(File sysBlock, String deviceName) {
+        Preconditions.checkNotNull(sysBlock);
+        Preconditions.checkNotNull(deviceName);
+        try {
+            Path devicePath = Paths.get(deviceName);
+            if (devicePath.isAbsolute() && java.nio.file.Files.exists(devicePath)) {
+                // resolve the links like /dev/mapper/name -> /dev/dm-0
+                devicePath = devicePath.toRealPath();
+            }
+            Path fileName = devicePath.getFileName();
+            if (fileName == null) {
+                return false;
+            }
+            File block = new File(sysBlock, fileName.toString());
+            if (!block.exists()) {
+                return false;
+            }
+            block = block.getCanonicalFile();
+            File rotational = new File(block, "queue/rotational");
+            if (!rotational.isFile()) {
+                rotational = new File(block.getParentFile(), "queue/rotational");
+            }
+            return rotational.isFile() && "1".equals(Files.toString(rotational, Charset.forName("US-ASCII")).trim());
+        } catch (IOException e) {
+            return false;
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    public synchronized String getName() {
+        lookupFileStore();
+        return name;
+    }
+
+    public synchronized boolean isRotational() {
+        lookupFileStore();
+        return rotational;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : getName().hashCode();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        ResourceDeviceFs other = (ResourceDeviceFs) obj;
+        if (id != null || other.id != null) {
+            return Objects.equal(id, other.id);
+        }
+        return getName().equals(other.getName()) && isRotational() == other.isRotational();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("id", id).add("name", getName()).add("rotational", isRotational())
+                .toString();
+    }
+
+}
@@ -67,4 +67,19 @@ public interface ResourceDirectory extends Resource {
 
     }
 
+    /**
+     * A response of a directory whose entries can be excluded from the sub-resources (e.g. by a filter). The excluded
+     * entries are not errors, but the sub-resources do not represent the whole content of the directory.
+     */
+    interface FilteredResourceCollectionResponse extends ResourceCollectionResponse {
+
+        /**
+         * Determine if any entry of the directory was excluded from the sub-resources.
+         *
+         * @return {@code true} if the sub-resources do not include all the entries of the directory
+         */
+        boolean hasExcludedResources();
+
+    }
+
 }
@@ -19,20 +19,34 @@ package gg.pistol.sweeper.core.resource;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
 
 /**
  * File-system resource directory implementation.
  *
  * <p>This implementation can only delete empty directories.
  *
+ * <p>The entries are selected with an optional {@link ResourceFilter} that is inherited by the sub-directories. The
+ * responses of the directories with excluded entries (by the filter or by staying on the same file system) report
+ * them with {@link ResourceDirectory.FilteredResourceCollectionResponse#hasExcludedResources()}, such directories are
+ * not empty after deleting their sub-resources.
+ *
  * @author Bogdan Pistol
  */
 public class ResourceDirectoryFs extends AbstractResource implements ResourceDirectory {
@@ -42,79 +56,166 @@ public class ResourceDirectoryFs extends AbstractResource implements ResourceDir
     // a restricted folder if so he desires.
     private final static Set<String> RESTRICTED_LOCATIONS = Sets.newHashSet("/dev", "/proc", "/sys");
 
-    private final File resource;
+    // The directory selected directly (null for the enumerated sub-directories, their file is created on demand).
+    @Nullable private final File resource;
+
+    // The canonical path of the directory selected directly or the name of the directory in its parent directory.
     private final String name;
+    @Nullable private final ResourceDirectoryFs parent;
+
+    @Nullable private final ResourceFilter filter;
+
+    // The ID of the file system that the traversal stays on, null in case the traversal can cross file systems.
+    @Nullable private final Object fileSystemId;
 
     public ResourceDirectoryFs(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Constructor for a directory whose entries (and the entries of the sub-directories) are selected by the
+     * {@code filter}. The directory itself is not filtered.
+     */
+    public ResourceDirectoryFs(File file, @Nullable ResourceFilter filter) throws IOException {
+        this(file, filter, null);
+    }
+
+    // package private for testing, the provided fileSystemId is used instead of the ID of the directory's file system
+    ResourceDirectoryFs(File file, @Nullable ResourceFilter filter, @Nullable Object fileSystemId) throws IOException {
         Preconditions.checkNotNull(file);
         Preconditions.checkArgument(file.isDirectory(),
                 "The provided File <" + file.getPath() + "> is not representing a directory");
         resource = file.getCanonicalFile();
         name = resource.getPath();
         Preconditions.checkArgument(name != null, "The canonical path of the provided file is null");
+        parent = null;
+        this.filter = filter;
+        if (fileSystemId == null && filter != null && filter.isSameFileSystem()) {
+            fileSystemId = getFileSystemId(resource.toPath());
+        }
+        this.fileSystemId = fileSystemId;
+    }
+
+    /**
+     * Constructor for an entry of a canonical directory that is known to be a directory (not a symbolic link), in
+     * which case the path is already canonical. Only the {@code name} of the entry is stored, the path is created on
+     * demand from the {@code parent}.
+     */
+    ResourceDirectoryFs(ResourceDirectoryFs parent, String name) {
+        Preconditions.checkNotNull(parent);
+        Preconditions.checkNotNull(name);
+        resource = null;
+        this.name = name;
+        this.parent = parent;
+        filter = parent.filter;
+        fileSystemId = parent.fileSystemId;
+    }
+
+    /**
+     * Retrieve the ID of the file system of the {@code path}: the device ID or the file store in case the device ID is
+     * not available.
+     */
+    static Object getFileSystemId(Path path) throws IOException {
+        try {
+            Object ret = Files.getAttribute(path, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+            if (ret != null) {
+                return ret;
+            }
+        } catch (UnsupportedOperationException e) {
+            // the device ID is not available
+        } catch (IllegalArgumentException e) {
+            // the device ID is not available
+        }
+        return Files.getFileStore(path);
     }
 
     public String getName() {
-        return name;
+        return parent == null ? name : parent.getChildPath(name);
+    }
+
+    /**
+     * Create the path of the entry with the provided {@code childName}.
+     */
+    String getChildPath(String childName) {
+        String path = getName();
+        return path.endsWith(File.separator) ? path + childName : path + File.separator + childName;
+    }
+
+    private File getFile() {
+        return resource != null ? resource : new File(getName());
     }
 
     public ResourceDirectory.ResourceCollectionResponse getSubresources() {
-        File[] files;
+        // The resources sorted by their names (same order as sorting by their paths).
+        Map<String, Resource> resources = new TreeMap<String, Resource>();
+        Collection<Exception> exceptions = null;
+        boolean excluded = false;
+
+        DirectoryStream<Path> stream;
         try {
-            files = getFiles(resource);
+            stream = Files.newDirectoryStream(getFile().toPath());
         } catch (Exception e) {
-            return createResponse(Collections.<Resource>emptyList(), Collections.singleton(e));
+            return createResponse(Collections.<Resource>emptyList(), Collections.singleton(e), false);
         }
+        try {
+            for (Path path : stream) {
+                try {
+                    // The type, size, modification date and file key of the entry are read with a single call.
+                    // The symbolic links are not followed, this defends against cycles and ignores all the symbolic
+                    // links. The entries of a canonical directory that are not symbolic links are canonical.
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
 
-        Collection<Resource> resources = new TreeSet<Resource>();
-        Collection<Exception> exceptions = null;
+                    // The excluded entries are pruned before creating their resources.
+                    if (filter != null && !attributes.isSymbolicLink() && !filter.accept(path, attributes)) {
+                        excluded = true;
+                        continue;
+                    }
 
-        String prefix = name;
-        if (!prefix.endsWith(File.separator)) {
-            prefix += File.separator;
-        }
-        for (File f : files) {
-            try {
-                Resource r = createResource(f);
-                if (r.getName().startsWith(prefix) && r.getName().length() > prefix.length() &&
-                        !r.getName().substring(prefix.length() + 1).contains(File.separator) &&
-                        !RESTRICTED_LOCATIONS.contains(r.getName())) {
-                    // Defend against cycles created by symbolic links and also ignore all the symbolic links.
-                    // In Java 1.6 there is no API to determine if a file is a symbolic link, the workaround is to
-                    // use the canonical path of the name of the resource and compare it with the parent canonical path.
-                    // Also it is possible to have a symlink in the same directory with the target original file,
-                    // and the canonical path is used again to guard against this by eliminating the symlink when both
-                    // are added to the "resources" TreeSet.
-                    // Also defend against restricted locations.
+                    // Stop at the mount points of other file systems.
+                    if (fileSystemId != null && attributes.isDirectory()
+                            && !fileSystemId.equals(getFileSystemId(path))) {
+                        excluded = true;
+                        continue;
+                    }
 
-                    resources.add(r);
-                }
-            } catch (Exception e) {
-                if (exceptions == null) {
-                    exceptions = new ArrayList<Exception>();
+                    // Also defend against restricted locations.
+                    if (RESTRICTED_LOCATIONS.contains(path.toString())) {
+                        continue;
+                    }
+                    String childName = path.getFileName().toString();
+                    Resource r = createResource(childName, attributes);
+                    if (r != null) {
+                        resources.put(childName, r);
+                    }
+                } catch (Exception e) {
+                    if (exceptions == null) {
+                        exceptions = new ArrayList<Exception>();
+                    }
+                    exceptions.add(e);
                 }
-                exceptions.add(e);
             }
+        } catch (Exception e) {
+            // the iteration of the directory entries failed
+            if (exceptions == null) {
+                exceptions = new ArrayList<Exception>();
+            }
+            exceptions.add(e);
+        } finally {
+            Closeables.closeQuietly(stream);
         }
 
         if (exceptions == null) {
             exceptions = Collections.emptyList();
         }
 
-        return createResponse(resources, exceptions);
-    }
-
-    private File[] getFiles(File directory) throws IOException {
-        File[] ret = directory.listFiles();
-        if (ret == null) {
-            throw new IOException("Cannot read the directory <" + directory.getPath() + ">");
-        }
-        return ret;
+        return createResponse(resources.values(), exceptions, excluded);
     }
 
     private ResourceDirectory.ResourceCollectionResponse createResponse(final Collection<? extends Resource> resources,
-                                                                        final Collection<? extends Exception> exceptions) {
-        return new ResourceDirectory.ResourceCollectionResponse() {
+                                                                        final Collection<? extends Exception> exceptions,
+                                                                        final boolean excluded) {
+        return new ResourceDirectory.FilteredResourceCollectionResponse() {
 
             public Collection<? extends Resource> getResources() {
                 return resources;
@@ -123,16 +224,28 @@ public class ResourceDirectoryFs extends AbstractResource implements ResourceDir
             public Collection<? extends Exception> getExceptions() {
                 return exceptions;
             }
+
+            public boolean hasExcludedResources() {
+                return excluded;
+            }
         };
     }
 
-    private Resource createResource(File file) throws IOException {
-        if (file.isFile()) {
-            return new ResourceFileFs(file);
-        } else if (file.isDirectory()) {
-            return new ResourceDirectoryFs(file);
+    /**
+     * Create the resource of a directory entry.
+     *
+     * @return the resource or {@code null} in case of a symbolic link
+     */
+    @Nullable
+    private Resource createResource(String childName, BasicFileAttributes attributes) throws IOException {
+        if (attributes.isSymbolicLink()) {
+            return null;
+        } else if (attributes.isRegularFile()) {
+            return new ResourceFileFs(this, childName, attributes);
+        } else if (attributes.isDirectory()) {
+            return new ResourceDirectoryFs(this, childName);
         } else {
-            throw new IOException("Cannot create a resource from <" + file.getPath()
+            throw new IOException("Cannot create a resource from <" + getChildPath(childName)
                     + ">, it is not a file or directory");
         }
     }
@@ -142,8 +255,8 @@ public class ResourceDirectoryFs extends AbstractResource implements ResourceDir
     }
 
     public void delete() throws IOException {
-        if (!resource.delete()) {
-            throw new IOException("Could not delete the directory <" + name + ">");
+        if (!getFile().delete()) {
+            throw new IOException("Could not delete the directory <" + getName() + ">");
         }
     }
 
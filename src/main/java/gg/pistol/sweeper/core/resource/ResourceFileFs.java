@@ -22,6 +22,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.annotation.Nullable;
 
 import org.joda.time.DateTime;
 
@@ -32,10 +37,20 @@ import com.google.common.base.Preconditions;
  *
  * @author Bogdan Pistol
  */
-public class ResourceFileFs extends AbstractResource implements ResourceFile {
+public class ResourceFileFs extends AbstractResource implements ChannelResourceFile, PhysicalResourceFile {
+
+    // The file selected directly (null for the files enumerated from a directory, their file is created on demand).
+    @Nullable private final File resource;
 
-    private final File resource;
+    // The canonical path of the file selected directly or the name of the file in its parent directory.
     private final String name;
+    @Nullable private final ResourceDirectoryFs parent;
+
+    // The attributes read when the file was enumerated from its directory (only the ones that are used are kept).
+    private final boolean enumerated;
+    private final long size;
+    private final long modified;
+    @Nullable private final Object fileKey;
 
     public ResourceFileFs(File file) throws IOException {
         Preconditions.checkNotNull(file);
@@ -44,31 +59,89 @@ public class ResourceFileFs extends AbstractResource implements ResourceFile {
         resource = file.getCanonicalFile();
         name = resource.getPath();
         Preconditions.checkArgument(name != null, "The canonical path of the provided file is null");
+        parent = null;
+        enumerated = false;
+        size = 0;
+        modified = 0;
+        fileKey = null;
+    }
+
+    /**
+     * Constructor for an entry of a canonical directory that is known to be a regular file (not a symbolic link), in
+     * which case the path is already canonical. Only the {@code name} of the entry is stored, the path is created on
+     * demand from the {@code parent}. The provided {@code attributes} are used instead of reading them again.
+     */
+    ResourceFileFs(ResourceDirectoryFs parent, String name, BasicFileAttributes attributes) {
+        Preconditions.checkNotNull(parent);
+        Preconditions.checkNotNull(name);
+        Preconditions.checkNotNull(attributes);
+        Preconditions.checkArgument(attributes.isRegularFile(), "The provided entry <" + name
+                + "> is not representing a normal file");
+        resource = null;
+        this.name = name;
+        this.parent = parent;
+        enumerated = true;
+        size = attributes.size();
+        modified = attributes.lastModifiedTime().toMillis();
+        fileKey = attributes.fileKey();
     }
 
     public String getName() {
-        return name;
+        return parent == null ? name : parent.getChildPath(name);
+    }
+
+    private File getFile() {
+        return resource != null ? resource : new File(getName());
     }
 
     public InputStream getInputStream() throws FileNotFoundException {
-        return new FileInputStream(resource);
+        return new FileInputStream(getFile());
+    }
+
+    public FileChannel getChannel() throws FileNotFoundException {
+        return new FileInputStream(getFile()).getChannel();
     }
 
     public long getSize() {
-        return resource.length();
+        if (enumerated) {
+            return size;
+        }
+        return getFile().length();
     }
 
     public DateTime getModificationDate() throws IOException {
-        long time = resource.lastModified();
+        long time = enumerated ? modified : getFile().lastModified();
         if (time == 0L) {
-            throw new IOException("Could not retrieve the modification date for the file <" + name + ">");
+            throw new IOException("Could not retrieve the modification date for the file <" + getName() + ">");
         }
         return new DateTime(time);
     }
 
+    @Nullable
+    public Object getFileKey() throws IOException {
+        if (enumerated) {
+            return fileKey;
+        }
+        return Files.readAttributes(getFile().toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    public ResourceDevice getDevice() throws IOException {
+        return ResourceDeviceFs.of(getFile());
+    }
+
+    public long getPhysicalOrder() throws IOException {
+        try {
+            return ((Number) Files.getAttribute(getFile().toPath(), "unix:ino")).longValue();
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
     public void delete() throws IOException {
-        if (!resource.delete()) {
-            throw new IOException("Could not delete the file <" + name + ">");
+        if (!getFile().delete()) {
+            throw new IOException("Could not delete the file <" + getName() + ">");
         }
     }
 
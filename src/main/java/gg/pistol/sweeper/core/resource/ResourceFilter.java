@@ -0,0 +1,192 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Rules that select the entries of the file-system directories while they are enumerated. The excluded directories
+ * are pruned: their subtrees are never listed, sized or hashed.
+ *
+ * <p>The rules are:
+ *
+ * <ul><li>excluded names: glob patterns matched against the name of the entry (e.g. {@code .git},
+ * {@code node_modules} or {@code *.tmp}), for both files and directories</li>
+ * <li>excluded paths: glob or regex patterns matched against the whole path of the entry, for both files and
+ * directories</li>
+ * <li>included paths: glob or regex patterns matched against the whole path of the files, when there are included
+ * paths only the matching files are selected (the directories are not affected because they could contain matching
+ * files)</li>
+ * <li>minimum and maximum file size</li>
+ * <li>staying on the file system of the selected directory (like {@code find -xdev}): the directories that are
+ * mount points of other file systems (e.g. network mounts or tmpfs) are not traversed</li></ul>
+ *
+ * <p>The path patterns use the syntax of {@link java.nio.file.FileSystem#getPathMatcher}, for example
+ * {@code glob:/home/*}{@code /.cache} or {@code regex:.*\.bak}.
+ *
+ * <p>The filter is meant to be configured before the traversal starts.
+ *
+ * @author Bogdan Pistol
+ */
+@ThreadSafe
+public class ResourceFilter {
+
+    private final List<PathMatcher> excludedNames = new CopyOnWriteArrayList<PathMatcher>();
+    private final List<PathMatcher> excludedPaths = new CopyOnWriteArrayList<PathMatcher>();
+    private final List<PathMatcher> includedPaths = new CopyOnWriteArrayList<PathMatcher>();
+
+    private volatile long minFileSize;
+    private volatile long maxFileSize = Long.MAX_VALUE;
+
+    private volatile boolean sameFileSystem;
+
+    /**
+     * Exclude the files and directories whose name matches the glob {@code pattern}.
+     *
+     * @param pattern
+     *         the glob pattern of the name (e.g. {@code node_modules} or {@code *.tmp})
+     * @return this filter
+     */
+    public ResourceFilter excludeName(String pattern) {
+        Preconditions.checkNotNull(pattern);
+        excludedNames.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        return this;
+    }
+
+    /**
+     * Exclude the files and directories whose path matches the {@code syntaxAndPattern}.
+     *
+     * @param syntaxAndPattern
+     *         the pattern of the path prefixed by its syntax ({@code glob:} or {@code regex:})
+     * @return this filter
+     */
+    public ResourceFilter excludePath(String syntaxAndPattern) {
+        Preconditions.checkNotNull(syntaxAndPattern);
+        excludedPaths.add(FileSystems.getDefault().getPathMatcher(syntaxAndPattern));
+        return this;
+    }
+
+    /**
+     * Select only the files whose path matches the {@code syntaxAndPattern} (or any of the other included paths).
+     *
+     * @param syntaxAndPattern
+     *         the pattern of the path prefixed by its syntax ({@code glob:} or {@code regex:})
+     * @return this filter
+     */
+    public ResourceFilter includePath(String syntaxAndPattern) {
+        Preconditions.checkNotNull(syntaxAndPattern);
+        includedPaths.add(FileSystems.getDefault().getPathMatcher(syntaxAndPattern));
+        return this;
+    }
+
+    /**
+     * Configure the minimum size of the selected files.
+     *
+     * @param minFileSize
+     *         the minimum size in bytes
+     * @return this filter
+     */
+    public ResourceFilter setMinFileSize(long minFileSize) {
+        Preconditions.checkArgument(minFileSize >= 0);
+        this.minFileSize = minFileSize;
+        return this;
+    }
+
+    /**
+     * Configure the maximum size of the selected files.
+     *
+     * @param maxFileSize
+     *         the maximum size in bytes
+     * @return this filter
+     */
+    public ResourceFilter setMaxFileSize(long maxFileSize) {
+        Preconditions.checkArgument(maxFileSize >= 0);
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * Determine if the traversal stays on the file system of the selected directory.
+     *
+     * @return {@code true} if the mount points of other file systems are not traversed
+     */
+    public boolean isSameFileSystem() {
+        return sameFileSystem;
+    }
+
+    /**
+     * Configure the traversal to stay on the file system of the selected directory, the directories on other file
+     * systems are skipped. The file systems are told apart by their device IDs (or by their file stores in case the
+     * device IDs are not available).
+     *
+     * @param sameFileSystem
+     *         {@code true} to skip the mount points of other file systems
+     * @return this filter
+     */
+    public ResourceFilter setSameFileSystem(boolean sameFileSystem) {
+        this.sameFileSystem = sameFileSystem;
+        return this;
+    }
+
+    /**
+     * Determine if the directory entry is selected.
+     *
+     * @param path
+     *         the path of the entry
+     * @param attributes
+     *         the attributes of the entry
+     * @return {@code true} if the entry is selected
+     */
+    public boolean accept(Path path, BasicFileAttributes attributes) {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkNotNull(attributes);
+        Path fileName = path.getFileName();
+        if (fileName != null && matches(excludedNames, fileName)) {
+            return false;
+        }
+        if (matches(excludedPaths, path)) {
+            return false;
+        }
+        if (attributes.isDirectory()) {
+            return true;
+        }
+        if (attributes.size() < minFileSize || attributes.size() > maxFileSize) {
+            return false;
+        }
+        return includedPaths.isEmpty() || matches(includedPaths, path);
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
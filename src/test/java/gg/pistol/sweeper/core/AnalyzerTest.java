@@ -20,22 +20,37 @@ package gg.pistol.sweeper.core;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import gg.pistol.sweeper.core.resource.PhysicalResourceFile;
 import gg.pistol.sweeper.core.resource.Resource;
+import gg.pistol.sweeper.core.resource.ResourceDevice;
 import gg.pistol.sweeper.core.resource.ResourceDirectory;
 import gg.pistol.sweeper.core.resource.ResourceFile;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -51,12 +66,22 @@ public class AnalyzerTest {
         listener = mock(SweeperOperationListener.class);
     }
 
-    private ResourceFile mockFile(String name, long size, long lastModifiedMillis, String content) throws Exception {
-        ResourceFile res = mock(ResourceFile.class);
+    private PhysicalResourceFile mockFile(String name, long size, long lastModifiedMillis, final String content)
+            throws Exception {
+        return mockFile(PhysicalResourceFile.class, name, size, lastModifiedMillis, content);
+    }
+
+    private <T extends ResourceFile> T mockFile(Class<T> type, String name, long size, long lastModifiedMillis,
+                                                final String content) throws Exception {
+        T res = mock(type);
         when(res.getName()).thenReturn(name);
         when(res.getSize()).thenReturn(size);
         when(res.getModificationDate()).thenReturn(new DateTime(lastModifiedMillis));
-        when(res.getInputStream()).thenReturn(new ByteArrayInputStream(content.getBytes("UTF-8")));
+        when(res.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(content.getBytes("UTF-8"));
+            }
+        });
         return res;
     }
 
@@ -117,6 +142,62 @@ public class AnalyzerTest {
      */
     @Test
     public void testAnalyzeDuplicateDir() throws Exception {
+        analyzeDuplicateDir();
+    }
+
+    @Test
+    public void testAnalyzeDuplicateDirParallelHash() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setHashThreads(3);
+        analyzer = new Analyzer(options);
+        analyzeDuplicateDir();
+    }
+
+    @Test
+    public void testAnalyzeDuplicateDirConcurrentTraversal() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setTraversalThreads(3);
+        analyzer = new Analyzer(options);
+        analyzeDuplicateDir();
+    }
+
+    @Test
+    public void testAnalyzeDuplicateDirPipelinedHashing() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setPipelinedHashing(true);
+        options.setTraversalThreads(2);
+        analyzer = new Analyzer(options);
+        analyzeDuplicateDir();
+    }
+
+    @Test
+    public void testAnalyzeDuplicateDirDirectCompare() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setDirectCompareMaxGroupSize(3);
+        analyzer = new Analyzer(options);
+
+        // the files are inside duplicate candidate directories so they need to be hashed
+        analyzeDuplicateDir();
+    }
+
+    @Test
+    public void testAnalyzeDuplicateDirExternalGrouping() throws Exception {
+        File directory = Files.createTempDirectory("sweeper").toFile();
+        try {
+            AnalysisOptions options = new AnalysisOptions();
+            options.setExternalGroupingMemory(1); // always group on disk
+            options.setExternalGroupingDirectory(directory);
+            analyzer = new Analyzer(options);
+            analyzeDuplicateDir();
+
+            // the run files are deleted
+            assertEquals(0, directory.list().length);
+        } finally {
+            directory.delete();
+        }
+    }
+
+    private void analyzeDuplicateDir() throws Exception {
         long file1Size = 1L;
         String file1Content = "file1Content";
         ResourceFile file1 = mockFile("upperDir/dir/file1", file1Size, 10L, file1Content);
@@ -138,9 +219,9 @@ public class AnalyzerTest {
 
         assertEquals(3, dups.size());
         Iterator<DuplicateGroup> iterator = dups.iterator();
-        assertEquals((file1Size + file2Size) + "e20496eb93b914eeef887e311bcc6c56b739f4e0", iterator.next().getHash());
-        assertEquals(file2Size + "6c46db5318dbb05719a85de973e4f1894149ce2d", iterator.next().getHash());
-        assertEquals(file1Size + "5e24f8e3368074888321372b53d3e1b14b3f2858", iterator.next().getHash());
+        assertEquals((file1Size + file2Size) + "968c280058b9e4238ea856ebe6c0fbc9f951e3e0", iterator.next().getHash().toString());
+        assertEquals(file2Size + "6c46db5318dbb05719a85de973e4f1894149ce2d", iterator.next().getHash().toString());
+        assertEquals(file1Size + "5e24f8e3368074888321372b53d3e1b14b3f2858", iterator.next().getHash().toString());
 
         iterator = dups.iterator();
         assertTrue(areTargetsFromResources(iterator.next().getTargets(), dir, dirCopy));
@@ -205,7 +286,7 @@ public class AnalyzerTest {
         NavigableSet<DuplicateGroup> dups = analyzer.analyze(set, listener);
 
         assertEquals(1, dups.size());
-        assertEquals(0L + "da39a3ee5e6b4b0d3255bfef95601890afd80709", dups.first().getHash());
+        assertEquals(0L + "da39a3ee5e6b4b0d3255bfef95601890afd80709", dups.first().getHash().toString());
 
         assertTrue(areTargetsFromResources(dups.first().getTargets(), emptyDir, emptyFile1, emptyFile2, emptyFile3, dir));
 
@@ -246,7 +327,7 @@ public class AnalyzerTest {
         NavigableSet<DuplicateGroup> dups = analyzer.analyze(set, listener);
 
         assertEquals(1, dups.size());
-        assertEquals(fileSize + "5d6829b05a40a708a8661a63359145c3f4376883", dups.first().getHash());
+        assertEquals(fileSize + "5d6829b05a40a708a8661a63359145c3f4376883", dups.first().getHash().toString());
 
         assertTrue(areTargetsFromResources(dups.first().getTargets(), dir, fileCopy));
 
@@ -294,7 +375,7 @@ public class AnalyzerTest {
         NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(file1, dir, file3), listener);
 
         assertEquals(1, dups.size());
-        assertEquals(file1Size + "5e24f8e3368074888321372b53d3e1b14b3f2858", dups.first().getHash());
+        assertEquals(file1Size + "5e24f8e3368074888321372b53d3e1b14b3f2858", dups.first().getHash().toString());
 
         assertTrue(areTargetsFromResources(dups.first().getTargets(), file1, file1Copy));
 
@@ -319,6 +400,370 @@ public class AnalyzerTest {
         assertEquals(file1Size, count.getDuplicateSize());
     }
 
+    /*
+     * Test filtering by the partial hash the files with the same size:
+     *
+     *      --file1
+     *     /
+     * root---file2 (same head window as file1, different content)
+     *     \
+     *      --file3 (different head window)
+     *
+     * There are no duplicates and file3 is not fully hashed. When the tail window is also hashed none of the files is
+     * fully hashed.
+     */
+    @Test
+    public void testAnalyzeHashRounds() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setHashRounds(4);
+        analyzer = new Analyzer(options);
+
+        ResourceFile file1 = mockFile("file1", 8L, 10L, "aaaaXXXX");
+        ResourceFile file2 = mockFile("file2", 8L, 11L, "aaaaYYYY");
+        ResourceFile file3 = mockFile("file3", 8L, 12L, "bbbbXXXX");
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(file1, file2, file3), listener);
+        assertTrue(dups.isEmpty());
+
+        Collection<TargetImpl> targets = analyzer.getRootTarget().getChildren();
+        assertTrue(getTargetFromResource(targets, file1).isHashed());
+        assertTrue(getTargetFromResource(targets, file2).isHashed());
+        assertFalse(getTargetFromResource(targets, file3).isPartiallyHashed());
+        verify(file1, times(2)).getInputStream();
+        verify(file3, times(1)).getInputStream();
+
+        options.setPartialHashTail(true);
+        options.setHashRounds(2);
+        analyzer = new Analyzer(options);
+
+        dups = analyzer.analyze(ImmutableSet.of(file1, file2, file3), listener);
+        assertTrue(dups.isEmpty());
+
+        // the tail window differentiates file1 from file2
+        for (TargetImpl target : analyzer.getRootTarget().getChildren()) {
+            assertFalse(target.isPartiallyHashed());
+        }
+    }
+
+    @Test
+    public void testAnalyzeSingleReader() throws Exception {
+        PhysicalResourceFile file1 = mockFile("file1", 1L, 10L, "a");
+        PhysicalResourceFile file2 = mockFile("file2", 1L, 11L, "a");
+
+        // the devices are not needed for a single sequential reader
+        assertEquals(1, analyzer.analyze(ImmutableSet.of(file1, file2), listener).size());
+        verify(file1, never()).getDevice();
+        verify(file1, never()).getPhysicalOrder();
+        verify(file2, never()).getDevice();
+    }
+
+    @Test
+    public void testAnalyzeDeviceScheduling() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setHashThreads(2);
+        options.setRotationalHashThreads(1);
+        analyzer = new Analyzer(options);
+
+        ResourceDevice hdd = mock(ResourceDevice.class);
+        when(hdd.isRotational()).thenReturn(true);
+        ResourceDevice ssd = mock(ResourceDevice.class);
+        final Map<String, String> readers = new ConcurrentHashMap<String, String>();
+
+        List<ResourceFile> files = new ArrayList<ResourceFile>();
+        for (int i = 0; i < 6; i++) {
+            final String name = "file" + i;
+            PhysicalResourceFile file = mockFile(name, 1L, 10L, "a");
+            when(file.getDevice()).thenReturn(i % 2 == 0 ? hdd : ssd);
+            when(file.getInputStream()).thenAnswer(new Answer<InputStream>() {
+                public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                    readers.put(name, Thread.currentThread().getName());
+                    return new ByteArrayInputStream("a".getBytes("UTF-8"));
+                }
+            });
+            files.add(file);
+        }
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.copyOf(files), listener);
+        assertEquals(1, dups.size());
+        assertEquals(6, dups.first().getTargets().size());
+
+        // a single sequential reader for the rotational device
+        assertEquals(6, readers.size());
+        assertEquals(readers.get("file0"), readers.get("file2"));
+        assertEquals(readers.get("file0"), readers.get("file4"));
+        assertTrue(readers.get("file0").startsWith("sweeper-hash-"));
+    }
+
+    @Test
+    public void testAnalyzeHardLinks() throws Exception {
+        final Set<String> reads = Collections.synchronizedSet(new HashSet<String>());
+        List<ResourceFile> links = new ArrayList<ResourceFile>();
+        for (int i = 1; i <= 2; i++) {
+            final String name = "link" + i;
+            PhysicalResourceFile link = mockFile(name, 1L, 10L, "a");
+            when(link.getFileKey()).thenReturn("key");
+            when(link.getInputStream()).thenAnswer(new Answer<InputStream>() {
+                public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                    reads.add(name);
+                    return new ByteArrayInputStream("a".getBytes("UTF-8"));
+                }
+            });
+            links.add(link);
+        }
+
+        // the hard links are not duplicates of each other
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.<Resource>copyOf(links), listener);
+        assertTrue(dups.isEmpty());
+        assertTrue(reads.isEmpty());
+        assertEquals(1, analyzer.getCount().getHardLinkFiles());
+        assertEquals(1L, analyzer.getCount().getHardLinkSize());
+
+        // the directories containing the hard links are hashed by reading only one of the links
+        ResourceDirectory dir1 = mockDirectory("dir1", links.get(0), mockFile("file1", 1L, 10L, "b"));
+        ResourceDirectory dir2 = mockDirectory("dir2", links.get(1), mockFile("file2", 1L, 10L, "c"));
+        dups = analyzer.analyze(ImmutableSet.<Resource>of(dir1, dir2), listener);
+        assertTrue(dups.isEmpty());
+        assertEquals(1, reads.size());
+        assertEquals(1, analyzer.getCount().getHardLinkFiles());
+    }
+
+    @Test
+    public void testAnalyzeExcludedEntries() throws Exception {
+        ResourceFile file1 = mockFile("upper1/dir1/file1", 1L, 10L, "a");
+        ResourceFile file1Copy = mockFile("upper2/dir2/file1", 1L, 11L, "a");
+        ResourceFile file2 = mockFile("upper1/dir1/file2", 2L, 12L, "bb");
+        ResourceFile file2Copy = mockFile("upper2/dir2/file2", 2L, 13L, "bb");
+        ResourceDirectory dir1 = mockDirectory("upper1/dir1", file1, file2);
+        ResourceDirectory dir2 = mockFilteredDirectory("upper2/dir2", file1Copy, file2Copy);
+        ResourceDirectory upper1 = mockDirectory("upper1", dir1, mockFile("upper1/file", 3L, 14L, "ccc"));
+        ResourceDirectory upper2 = mockDirectory("upper2", dir2, mockFile("upper2/file", 3L, 15L, "ccc"));
+
+        // the directories (and their ancestors) with excluded entries are not duplicates of the other directories
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(upper1, upper2), listener);
+        assertEquals(3, dups.size());
+        for (DuplicateGroup dup : dups) {
+            for (Target target : dup.getTargets()) {
+                assertEquals(Target.Type.FILE, target.getType());
+            }
+        }
+        verify(listener, never()).updateException(any(Target.class), any(SweeperException.class));
+
+        // the single child of a directory with excluded entries is not represented by the directory
+        ResourceFile file3 = mockFile("dir3/file3", 1L, 16L, "a");
+        ResourceDirectory dir3 = mockFilteredDirectory("dir3", file3);
+        dups = analyzer.analyze(ImmutableSet.of(dir3, file1), listener);
+        assertEquals(1, dups.size());
+        assertTrue(areTargetsFromResources(dups.first().getTargets(), file3, file1));
+    }
+
+    private ResourceDirectory mockFilteredDirectory(String name, Resource... children) {
+        ResourceDirectory res = mock(ResourceDirectory.class);
+        when(res.getName()).thenReturn(name);
+        ResourceDirectory.FilteredResourceCollectionResponse response =
+                mock(ResourceDirectory.FilteredResourceCollectionResponse.class);
+        when(res.getSubresources()).thenReturn(response);
+        doReturn(ImmutableList.copyOf(children)).when(response).getResources();
+        doReturn(Collections.<Exception>emptyList()).when(response).getExceptions();
+        when(response.hasExcludedResources()).thenReturn(true);
+        return res;
+    }
+
+    @Test
+    public void testAnalyzePlainResourceFiles() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setHashThreads(2);
+        options.setPhysicalReadOrder(true);
+        analyzer = new Analyzer(options);
+
+        // the files without a file key, a device or a physical order
+        ResourceFile file1 = mockFile(ResourceFile.class, "file1", 1L, 10L, "a");
+        ResourceFile file2 = mockFile(ResourceFile.class, "file2", 1L, 11L, "a");
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(file1, file2), listener);
+        assertEquals(1, dups.size());
+        assertTrue(areTargetsFromResources(dups.first().getTargets(), file1, file2));
+    }
+
+    @Test
+    public void testAnalyzeOptionsChanged() throws Exception {
+        final AnalysisOptions options = new AnalysisOptions();
+        analyzer = new Analyzer(options);
+
+        ResourceFile file1 = mockFile("dir/file1", 1L, 10L, "a");
+        ResourceFile file2 = mockFile("dir/file2", 1L, 11L, "a");
+        ResourceDirectory dir = mockDirectory("dir", file1, file2);
+        final ResourceDirectory.ResourceCollectionResponse response = dir.getSubresources();
+        when(dir.getSubresources()).thenAnswer(new Answer<ResourceDirectory.ResourceCollectionResponse>() {
+            public ResourceDirectory.ResourceCollectionResponse answer(InvocationOnMock invocation) throws Throwable {
+                options.setDirectCompareMaxGroupSize(3);
+                return response;
+            }
+        });
+
+        // the change made during the analysis applies only to the next analysis
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(dir), listener);
+        assertEquals(1, dups.size());
+        assertNotNull(dups.first().getHash());
+
+        dups = analyzer.analyze(ImmutableSet.of(dir), listener);
+        assertEquals(1, dups.size());
+        assertNull(dups.first().getHash());
+    }
+
+    @Test
+    public void testAnalyzeHardLinksDirectCompare() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setDirectCompareMaxGroupSize(3);
+        analyzer = new Analyzer(options);
+
+        PhysicalResourceFile file = mockFile("file", 4L, 10L, "aaaa");
+        when(file.getFileKey()).thenReturn("key");
+        ResourceFile copy = mockFile("copy", 4L, 11L, "aaaa");
+        PhysicalResourceFile link1 = mockFile("dir1/link", 4L, 10L, "aaaa");
+        when(link1.getFileKey()).thenReturn("key");
+        PhysicalResourceFile link2 = mockFile("dir2/link", 4L, 10L, "aaaa");
+        when(link2.getFileKey()).thenReturn("key");
+        ResourceDirectory dir1 = mockDirectory("dir1", link1, mockFile("dir1/file", 2L, 12L, "bb"));
+        ResourceDirectory dir2 = mockDirectory("dir2", link2, mockFile("dir2/file", 2L, 12L, "bb"));
+
+        // the file is visited first so it represents the links, it is compared directly with its copy while the links
+        // inside the candidate directories still need a hash
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(dir1, dir2, copy, file), listener);
+        for (DuplicateGroup dup : dups) {
+            if (dup.getTargets().iterator().next().getType() == Target.Type.DIRECTORY) {
+                assertTrue(areTargetsFromResources(dup.getTargets(), dir1, dir2));
+                return;
+            }
+        }
+        fail("the directories are duplicates");
+    }
+
+    @Test
+    public void testAnalyzePipelinedHashing() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setPipelinedHashing(true);
+        analyzer = new Analyzer(options);
+
+        final CountDownLatch read = new CountDownLatch(1);
+        ResourceFile file1 = mockFile("dir/file1", 1L, 10L, "a");
+        ResourceFile file2 = mockFile("dir/file2", 1L, 10L, "a");
+        when(file2.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                read.countDown();
+                return new ByteArrayInputStream("a".getBytes("UTF-8"));
+            }
+        });
+
+        // the listing of the sub-directory waits for the files discovered before it to be read
+        ResourceDirectory subdir = mockDirectory("dir/subdir");
+        final ResourceDirectory.ResourceCollectionResponse response = subdir.getSubresources();
+        final AtomicBoolean readDuringTraversal = new AtomicBoolean();
+        when(subdir.getSubresources()).thenAnswer(new Answer<ResourceDirectory.ResourceCollectionResponse>() {
+            public ResourceDirectory.ResourceCollectionResponse answer(InvocationOnMock invocation) throws Throwable {
+                readDuringTraversal.set(read.await(10, TimeUnit.SECONDS));
+                return response;
+            }
+        });
+        ResourceDirectory dir = mockDirectory("dir", file1, file2, subdir);
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(dir), listener);
+        assertTrue(readDuringTraversal.get());
+        assertEquals(1, dups.size());
+        assertTrue(areTargetsFromResources(dups.first().getTargets(), file1, file2));
+        verify(file2).getInputStream();
+    }
+
+    @Test
+    public void testAnalyzePhysicalReadOrder() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setPhysicalReadOrder(true);
+        analyzer = new Analyzer(options);
+
+        final List<String> reads = Collections.synchronizedList(new ArrayList<String>());
+        Set<Resource> files = new LinkedHashSet<Resource>();
+        for (int i = 0; i < 4; i++) {
+            final String name = "file" + i;
+            PhysicalResourceFile file = mockFile(name, 1L, 10L, "a");
+            when(file.getPhysicalOrder()).thenReturn(100L - i);
+            when(file.getInputStream()).thenAnswer(new Answer<InputStream>() {
+                public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                    reads.add(name);
+                    return new ByteArrayInputStream("a".getBytes("UTF-8"));
+                }
+            });
+            files.add(file);
+        }
+
+        assertEquals(1, analyzer.analyze(files, listener).size());
+        assertEquals(ImmutableList.of("file3", "file2", "file1", "file0"), reads);
+    }
+
+    @Test
+    public void testAnalyzeHashRoundsRefine() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setHashRounds(2, 4);
+        analyzer = new Analyzer(options);
+
+        ResourceFile file1 = mockFile("file1", 8L, 10L, "aaaaXXXX");
+        ResourceFile file2 = mockFile("file2", 8L, 11L, "aaaaXXXX");
+        ResourceFile file3 = mockFile("file3", 8L, 12L, "aaabXXXX");
+        ResourceFile file4 = mockFile("file4", 8L, 13L, "abbbXXXX");
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(file1, file2, file3, file4), listener);
+        assertEquals(1, dups.size());
+        assertEquals(8L + "4d954994b3c698b034ef7ad3add89ec14458f2ef", dups.first().getHash().toString());
+        assertTrue(areTargetsFromResources(dups.first().getTargets(), file1, file2));
+
+        // file4 differs in the first round and file3 in the second round, file1 is read in two rounds and finished
+        Collection<TargetImpl> targets = analyzer.getRootTarget().getChildren();
+        assertFalse(getTargetFromResource(targets, file3).isPartiallyHashed());
+        verify(file1, times(3)).getInputStream();
+        verify(file3, times(2)).getInputStream();
+        verify(file4, times(1)).getInputStream();
+
+        // the max progress counts the rounds of all the files (4 * 2 and 4 * 4 bytes) and their full hash
+        // (4 * 8 bytes), the bytes of the dropped files are skipped after each round
+        verify(listener).updateOperationProgress(eq(8L), eq(56L), anyInt());
+        verify(listener).updateOperationProgress(eq(20L), eq(56L), anyInt());
+        verify(listener).updateOperationProgress(eq(24L), eq(56L), anyInt());
+        verify(listener).updateOperationProgress(eq(40L), eq(56L), anyInt());
+        verify(listener).updateOperationProgress(eq(48L), eq(56L), anyInt());
+        verify(listener).updateOperationProgress(eq(56L), eq(56L), eq(100));
+    }
+
+    @Test
+    public void testAnalyzeDirectCompare() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setDirectCompareMaxGroupSize(3);
+        analyzer = new Analyzer(options);
+
+        ResourceFile file1 = mockFile("file1", 8L, 10L, "aaaaXXXX");
+        ResourceFile file2 = mockFile("file2", 8L, 11L, "aaaaXXXX");
+        ResourceFile file3 = mockFile("file3", 8L, 12L, "aaaaYYYY");
+        ResourceFile file4 = mockFile("file4", 4L, 13L, "bbbb");
+        ResourceFile file5 = mockFile("file5", 4L, 14L, "cccc");
+
+        NavigableSet<DuplicateGroup> dups = analyzer.analyze(ImmutableSet.of(file1, file2, file3, file4, file5),
+                listener);
+        assertEquals(1, dups.size());
+        assertNull(dups.first().getHash());
+        assertNull(dups.first().getHashAlgorithm());
+        assertTrue(areTargetsFromResources(dups.first().getTargets(), file1, file2));
+
+        Collection<TargetImpl> targets = analyzer.getRootTarget().getChildren();
+        assertEquals(10L, getTargetFromResource(targets, file1).getModificationDate().getMillis());
+        assertFalse(getTargetFromResource(targets, file3).isPartiallyHashed());
+        assertFalse(getTargetFromResource(targets, file4).isPartiallyHashed());
+        verify(file1).getInputStream();
+        verify(file3).getInputStream();
+        verifyAnalyzeListener();
+
+        SweeperCountImpl count = analyzer.getCount();
+        assertEquals(1, count.getDuplicateTargets());
+        assertEquals(1, count.getDuplicateTargetFiles());
+        assertEquals(8L, count.getDuplicateSize());
+    }
+
     /*
      * Test fixing the multiple target parent situations.
      *
@@ -338,6 +783,13 @@ public class AnalyzerTest {
         analyzer.analyze(ImmutableSet.of(res1, res2), listener);
 
         assertEquals(1, analyzer.getRootTarget().getChildren().size());
+
+        AnalysisOptions options = new AnalysisOptions();
+        options.setTraversalThreads(2);
+        analyzer = new Analyzer(options);
+        analyzer.analyze(ImmutableSet.of(res1, res2), listener);
+
+        assertEquals(1, analyzer.getRootTarget().getChildren().size());
     }
 
     @Test
@@ -471,4 +923,29 @@ public class AnalyzerTest {
         }
     }
 
+    @Test
+    public void testAbortConcurrentTraversal() throws Exception {
+        AnalysisOptions options = new AnalysisOptions();
+        options.setTraversalThreads(2);
+        analyzer = new Analyzer(options);
+
+        ResourceDirectory dir = mockDirectory("root/dir", mockDirectory("root/dir/subdir"));
+        final ResourceDirectory.ResourceCollectionResponse response = dir.getSubresources();
+        when(dir.getSubresources()).thenAnswer(new Answer<ResourceDirectory.ResourceCollectionResponse>() {
+            public ResourceDirectory.ResourceCollectionResponse answer(InvocationOnMock invocation) throws Throwable {
+                analyzer.abortAnalysis();
+                return response;
+            }
+        });
+        Resource root = mockDirectory("root", dir);
+
+        try {
+            analyzer.analyze(ImmutableSet.of(root), listener);
+            fail();
+        } catch (SweeperAbortException e) {
+            // expected
+            assertNull(analyzer.getCount());
+        }
+    }
+
 }
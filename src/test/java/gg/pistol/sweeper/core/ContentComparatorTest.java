@@ -0,0 +1,163 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import gg.pistol.sweeper.core.resource.ResourceFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class ContentComparatorTest {
+
+    private static final int SIZE = 200 * (1 << 10);
+
+    private ContentComparator comparator;
+    private OperationTrackingListener listener;
+
+    @Before
+    public void setUp() {
+        comparator = new ContentComparator();
+        listener = mock(OperationTrackingListener.class);
+    }
+
+    private TargetImpl createTarget(String name, final byte[] content) throws Exception {
+        ResourceFile res = mock(ResourceFile.class);
+        when(res.getName()).thenReturn(name);
+        when(res.getSize()).thenReturn((long) content.length);
+        when(res.getModificationDate()).thenReturn(new DateTime(100L));
+        when(res.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(content);
+            }
+        });
+        TargetImpl target = new TargetImpl(ImmutableSet.of(res)).getChildren().iterator().next();
+        target.computeSize(listener);
+        return target;
+    }
+
+    private byte[] content(int differentIndex) {
+        byte[] ret = new byte[SIZE];
+        Arrays.fill(ret, (byte) 1);
+        if (differentIndex >= 0) {
+            ret[differentIndex] = 2;
+        }
+        return ret;
+    }
+
+    @Test
+    public void testCompare() throws Exception {
+        TargetImpl target1 = createTarget("target1", content(-1));
+        TargetImpl target2 = createTarget("target2", content(150000));
+        TargetImpl target3 = createTarget("target3", content(-1));
+        TargetImpl target4 = createTarget("target4", content(150000));
+        TargetImpl target5 = createTarget("target5", content(10));
+        AtomicLong progress = new AtomicLong();
+
+        List<List<TargetImpl>> dups = comparator.compare(ImmutableList.of(target1, target2, target3, target4, target5),
+                listener, new AtomicBoolean(), progress);
+
+        assertEquals(2, dups.size());
+        assertEquals(ImmutableList.of(target1, target3), dups.get(0));
+        assertEquals(ImmutableList.of(target2, target4), dups.get(1));
+        for (List<TargetImpl> group : dups) {
+            for (TargetImpl target : group) {
+                assertTrue(target.isHashed());
+                assertTrue(target.isContentCompared());
+                assertEquals(100L, target.getModificationDate().getMillis());
+            }
+        }
+        assertFalse(target5.isPartiallyHashed());
+        assertEquals(5L * SIZE, progress.get());
+        verify(listener).incrementOperationProgress(5L * SIZE);
+    }
+
+    @Test
+    public void testCompareEmpty() throws Exception {
+        TargetImpl target1 = createTarget("target1", new byte[0]);
+        TargetImpl target2 = createTarget("target2", new byte[0]);
+
+        List<List<TargetImpl>> dups = comparator.compare(ImmutableList.of(target1, target2), listener,
+                new AtomicBoolean(), new AtomicLong());
+        assertEquals(ImmutableList.of(ImmutableList.of(target1, target2)), dups);
+        assertTrue(comparator.compare(ImmutableList.<TargetImpl>of(), listener, new AtomicBoolean(),
+                new AtomicLong()).isEmpty());
+    }
+
+    @Test
+    public void testCompareReadException() throws Exception {
+        TargetImpl target1 = createTarget("target1", content(-1));
+        TargetImpl target2 = createTarget("target2", content(-1));
+        TargetImpl target3 = createTarget("target3", content(-1));
+        InputStream failing = mock(InputStream.class);
+        when(failing.read(any(byte[].class), anyInt(), anyInt())).thenThrow(new IOException());
+        when(((ResourceFile) target3.getResource()).getInputStream()).thenReturn(failing);
+        AtomicLong progress = new AtomicLong();
+
+        List<List<TargetImpl>> dups = comparator.compare(ImmutableList.of(target1, target2, target3), listener,
+                new AtomicBoolean(), progress);
+
+        assertEquals(ImmutableList.of(ImmutableList.of(target1, target2)), dups);
+        assertTrue(target3.isPartiallyHashed());
+        assertFalse(target3.isHashed());
+        verify(listener).updateException(eq(target3), any(SweeperException.class));
+        assertEquals(3L * SIZE, progress.get());
+    }
+
+    @Test
+    public void testCompareAbort() throws Exception {
+        TargetImpl target1 = createTarget("target1", content(-1));
+        TargetImpl target2 = createTarget("target2", content(-1));
+
+        try {
+            comparator.compare(ImmutableList.of(target1, target2), listener, new AtomicBoolean(true), new AtomicLong());
+            fail();
+        } catch (SweeperAbortException e) {
+            // expected
+        }
+        assertFalse(target1.isPartiallyHashed());
+    }
+
+    @Test
+    public void testCompareException() throws Exception {
+        try {
+            comparator.compare(ImmutableList.of(createTarget("target1", new byte[1]), createTarget("target2", new byte[2])),
+                    listener, new AtomicBoolean(), new AtomicLong());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected because the sizes are different
+        }
+    }
+
+}
@@ -32,6 +32,8 @@ import com.google.common.collect.Lists;
 
 public class DuplicateGroupTest {
 
+    private static final HashAlgorithm ALGORITHM = StandardHashAlgorithm.SHA_1;
+
     private DuplicateGroup group1;
     private DuplicateGroup group1Copy;
     private DuplicateGroup group2;
@@ -48,66 +50,98 @@ public class DuplicateGroupTest {
     private DuplicateGroup createGroup(long size, String hash) {
         TargetImpl target1 = mockTarget("target-" + Math.random(), size, true, hash);
         TargetImpl target2 = mockTarget("target-" + Math.random(), size, true, hash);
-        return new DuplicateGroup(ImmutableList.of(target1, target2));
+        return new DuplicateGroup(ImmutableList.of(target1, target2), ALGORITHM);
     }
 
     private TargetImpl mockTarget(String name, long size, boolean isHashed, String hash) {
         TargetImpl target = mock(TargetImpl.class);
-        when(target.getHash()).thenReturn(name);
+        when(target.getName()).thenReturn(name);
         when(target.getSize()).thenReturn(size);
         when(target.isHashed()).thenReturn(isHashed);
-        when(target.getHash()).thenReturn(hash);
+        when(target.getHash()).thenReturn(fingerprint(size, hash));
+        when(target.isContentCompared()).thenReturn(isHashed && hash == null);
         return target;
     }
 
+    private Fingerprint fingerprint(long size, String hash) {
+        return hash == null ? null : Fingerprint.of(size, hash.getBytes());
+    }
+
     @Test
     public void testConstructor() throws Exception {
         String hash = "hash";
         long size = 1L;
         TargetImpl target1 = mockTarget("target1", size, true, hash);
         TargetImpl target2 = mockTarget("target2", size, true, hash);
-        DuplicateGroup group = new DuplicateGroup(ImmutableList.of(target1, target2));
+        DuplicateGroup group = new DuplicateGroup(ImmutableList.of(target1, target2), ALGORITHM);
 
         Iterator<? extends Target> iterator = group.getTargets().iterator();
         assertEquals(target1, iterator.next());
         assertEquals(target2, iterator.next());
 
-        assertEquals(hash, group.getHash());
+        assertEquals(fingerprint(size, hash), group.getHash());
         assertEquals(size, group.getSize());
+        assertEquals("SHA-1", group.getHashAlgorithm());
+    }
+
+    @Test
+    public void testConstructorCompared() throws Exception {
+        TargetImpl target1 = mockTarget("target1", 1L, true, null);
+        TargetImpl target2 = mockTarget("target2", 1L, true, null);
+        DuplicateGroup group = new DuplicateGroup(ImmutableList.of(target1, target2));
+
+        assertEquals(2, group.getTargets().size());
+        assertNull(group.getHash());
+        assertNull(group.getHashAlgorithm());
+        assertEquals(1L, group.getSize());
+
+        try {
+            new DuplicateGroup(ImmutableList.of(target1, mockTarget("target3", 1L, true, "hash")));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected because the target has a hash
+        }
     }
 
     @Test
     public void testConstructorException() {
         try {
-            new DuplicateGroup(null);
+            new DuplicateGroup(null, ALGORITHM);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        try {
+            new DuplicateGroup(ImmutableList.of(mockTarget("target", 0L, true, "hash")), null);
             fail();
         } catch (NullPointerException e) {
             // expected
         }
 
         try {
-            new DuplicateGroup(Collections.<TargetImpl>emptyList());
+            new DuplicateGroup(Collections.<TargetImpl>emptyList(), ALGORITHM);
             fail();
         } catch (IllegalArgumentException e) {
             // expected
         }
 
         try {
-            new DuplicateGroup(Lists.newArrayList(mockTarget("target", 0L, false, null)));
+            new DuplicateGroup(Lists.newArrayList(mockTarget("target", 0L, false, null)), ALGORITHM);
             fail();
         } catch (IllegalArgumentException e) {
             // expected because it is not hashed
         }
 
         try {
-            new DuplicateGroup(Lists.newArrayList(mockTarget("a", 0L, true, "foo"), mockTarget("b", 0L, true, "bar")));
+            new DuplicateGroup(Lists.newArrayList(mockTarget("a", 0L, true, "foo"), mockTarget("b", 0L, true, "bar")), ALGORITHM);
             fail();
         } catch (IllegalArgumentException e) {
             // expected because hashes are different
         }
 
         try {
-            new DuplicateGroup(Lists.newArrayList(mockTarget("a", 1L, true, "hash"), mockTarget("b", 2L, true, "hash")));
+            new DuplicateGroup(Lists.newArrayList(mockTarget("a", 1L, true, "hash"), mockTarget("b", 2L, true, "hash")), ALGORITHM);
             fail();
         } catch (IllegalArgumentException e) {
             // expected because sizes are different
@@ -127,6 +161,23 @@ public class DuplicateGroupTest {
     @Test
     public void testEquals() {
         verifyEquals(group1, group1Copy, group2);
+
+        TargetImpl target = mockTarget("target", 20L, true, "hash1");
+        DuplicateGroup group = new DuplicateGroup(ImmutableList.of(target), StandardHashAlgorithm.MURMUR3_128);
+        assertFalse(group1.equals(group));
+    }
+
+    @Test
+    public void testEqualsCompared() {
+        DuplicateGroup group = createComparedGroup("a", "b");
+        verifyEquals(group, createComparedGroup("b", "a"), createComparedGroup("c", "d"));
+        verifyHashCode(group, createComparedGroup("b", "a"));
+        verifyCompareTo(group, createComparedGroup("b", "a"), createComparedGroup("c", "d"));
+        assertFalse(group.equals(group1));
+    }
+
+    private DuplicateGroup createComparedGroup(String name1, String name2) {
+        return new DuplicateGroup(ImmutableList.of(mockTarget(name1, 5L, true, null), mockTarget(name2, 5L, true, null)));
     }
 
     @Test
@@ -0,0 +1,227 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import gg.pistol.sweeper.core.resource.Resource;
+import gg.pistol.sweeper.core.resource.ResourceFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+
+public class ExternalGrouperTest {
+
+    private File directory;
+    private AtomicBoolean abortFlag;
+    private Function<TargetImpl, Long> sizeFunction;
+    private TargetTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("sweeper").toFile();
+        abortFlag = new AtomicBoolean();
+        sizeFunction = new Function<TargetImpl, Long>() {
+            @Nullable
+            public Long apply(TargetImpl input) {
+                return input.getSize() >= 0 ? input.getSize() : null;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        directory.delete();
+    }
+
+    /**
+     * Create sized files numbered in pre-order (the ids of the files start from 2).
+     */
+    private List<TargetImpl> createTargets(long... sizes) throws Exception {
+        Set<Resource> resources = new LinkedHashSet<Resource>();
+        for (int i = 0; i < sizes.length; i++) {
+            ResourceFile res = mock(ResourceFile.class);
+            when(res.getName()).thenReturn("file" + i);
+            when(res.getSize()).thenReturn(sizes[i]);
+            resources.add(res);
+        }
+        table = new TargetImpl(resources).getTable().compact();
+        List<TargetImpl> ret = new ArrayList<TargetImpl>(table.getTarget(TargetTable.ROOT).getChildren());
+        for (TargetImpl target : ret) {
+            target.computeSize(mock(OperationTrackingListener.class));
+        }
+        return ret;
+    }
+
+    private <K extends Comparable<? super K>> Multimap<K, TargetImpl> group(ExternalGrouper<K> grouper,
+            List<TargetImpl> targets) throws Exception {
+        final Multimap<K, TargetImpl> ret = ArrayListMultimap.create();
+        grouper.group(table, targets.iterator(), new ExternalGrouper.GroupHandler<K>() {
+            public void group(K key, List<TargetImpl> group) {
+                assertFalse(ret.containsKey(key));
+                ret.putAll(key, group);
+            }
+        });
+        return ret;
+    }
+
+    @Test
+    public void testGroup() throws Exception {
+        List<TargetImpl> targets = createTargets(5L, 3L, 5L, 7L, -1L, 3L, 5L); // -1 is ignored
+        TargetImpl t1 = targets.get(0);
+        TargetImpl t2 = targets.get(1);
+        TargetImpl t3 = targets.get(2);
+        TargetImpl t6 = targets.get(5);
+        TargetImpl t7 = targets.get(6);
+
+        // runs of 2 records are merged, the targets of a group are in the decreasing order of their ids
+        Multimap<Long, TargetImpl> groups = group(new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC,
+                2, directory, abortFlag), targets);
+
+        assertEquals(2, groups.keySet().size());
+        assertEquals(ImmutableList.of(t6, t2), groups.get(3L));
+        assertEquals(ImmutableList.of(t7, t3, t1), groups.get(5L));
+
+        // a single run
+        assertEquals(groups, group(new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, 10, directory,
+                abortFlag), targets));
+
+        // the run length derived from the maximum heap size
+        assertEquals(groups, group(new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, directory,
+                abortFlag), targets));
+
+        // the run files are deleted
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testGroupManyRuns() throws Exception {
+        final int targetCount = 1000;
+        final int runLength = 10;
+        final int keys = 7;
+        long[] sizes = new long[targetCount];
+        for (int i = 0; i < targetCount; i++) {
+            sizes[i] = i % keys;
+        }
+        createTargets(sizes);
+
+        final List<Long> groupKeys = new ArrayList<Long>();
+        final List<Integer> runFiles = new ArrayList<Integer>();
+        new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, runLength, directory, abortFlag)
+                .group(table, table.getTarget(TargetTable.ROOT).getChildren().iterator(),
+                        new ExternalGrouper.GroupHandler<Long>() {
+                            public void group(Long key, List<TargetImpl> group) {
+                                groupKeys.add(key);
+                                runFiles.add(directory.list().length);
+
+                                int previousOrder = Integer.MAX_VALUE;
+                                for (TargetImpl target : group) {
+                                    assertEquals((long) key, target.getSize());
+                                    assertTrue(target.getOrder() < previousOrder);
+                                    previousOrder = target.getOrder();
+                                }
+                                assertEquals(targetCount / keys + (key < targetCount % keys ? 1 : 0), group.size());
+                            }
+                        });
+
+        // the groups are handed over in the order of the keys while the runs are merged
+        assertEquals(ImmutableList.of(0L, 1L, 2L, 3L, 4L, 5L, 6L), groupKeys);
+        for (int files : runFiles) {
+            assertEquals(targetCount / runLength, files);
+        }
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testGroupEmpty() throws Exception {
+        createTargets(1L);
+        assertTrue(group(new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, 2, directory, abortFlag),
+                ImmutableList.<TargetImpl>of()).isEmpty());
+    }
+
+    @Test
+    public void testGroupFingerprint() throws Exception {
+        final Fingerprint fingerprint1 = Fingerprint.of(10L, new byte[] {1, 2, 3});
+        final Fingerprint fingerprint2 = Fingerprint.of(10L, new byte[] {1, 2});
+        List<TargetImpl> targets = createTargets(1L, 2L, 1L, 2L);
+        Function<TargetImpl, Fingerprint> hashFunction = new Function<TargetImpl, Fingerprint>() {
+            public Fingerprint apply(TargetImpl input) {
+                return input.getSize() == 1L ? fingerprint1 : fingerprint2;
+            }
+        };
+
+        Multimap<Fingerprint, TargetImpl> groups = group(new ExternalGrouper<Fingerprint>(hashFunction,
+                ExternalGrouper.FINGERPRINT_CODEC, 1, directory, abortFlag), targets);
+
+        assertEquals(ImmutableList.of(targets.get(2), targets.get(0)), groups.get(fingerprint1));
+        assertEquals(ImmutableList.of(targets.get(3), targets.get(1)), groups.get(fingerprint2));
+        assertEquals(4, groups.size());
+    }
+
+    @Test
+    public void testGroupAbort() throws Exception {
+        List<TargetImpl> targets = createTargets(1L, 1L);
+        abortFlag.set(true);
+        try {
+            group(new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, 1, directory, abortFlag),
+                    targets);
+            fail();
+        } catch (SweeperAbortException e) {
+            // expected
+        }
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testGetRunLength() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        assertTrue(ExternalGrouper.getRunLength(ExternalGrouper.SIZE_CODEC) > 1);
+        assertTrue(ExternalGrouper.getRunLength(ExternalGrouper.FINGERPRINT_CODEC)
+                < ExternalGrouper.getRunLength(ExternalGrouper.SIZE_CODEC));
+        assertTrue((long) ExternalGrouper.getRunLength(ExternalGrouper.SIZE_CODEC)
+                * ExternalGrouper.SIZE_CODEC.getRecordMemory() < maxMemory);
+    }
+
+    @Test
+    public void testConstructorException() {
+        try {
+            new ExternalGrouper<Long>(sizeFunction, ExternalGrouper.SIZE_CODEC, 0, directory, abortFlag);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
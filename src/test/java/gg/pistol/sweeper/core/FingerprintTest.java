@@ -0,0 +1,115 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+import static gg.pistol.sweeper.test.ObjectVerifier.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerprintTest {
+
+    private Fingerprint fingerprint1;
+    private Fingerprint fingerprint1Copy;
+    private Fingerprint fingerprint2;
+
+    @Before
+    public void setUp() {
+        fingerprint1 = Fingerprint.of(10L, new byte[] {1, 2, 3});
+        fingerprint1Copy = Fingerprint.of(10L, new byte[] {1, 2, 3});
+        fingerprint2 = Fingerprint.of(10L, new byte[] {1, 2, 4});
+    }
+
+    @Test
+    public void testOf() {
+        byte[] digest = new byte[Fingerprint.MAX_DIGEST_LENGTH];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) (0xf0 + i);
+        }
+        Fingerprint fingerprint = Fingerprint.of(5L, digest);
+
+        assertEquals(5L, fingerprint.getSize());
+        assertEquals(digest.length, fingerprint.getDigestLength());
+        assertArrayEquals(digest, fingerprint.getDigest());
+        assertEquals("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff000102030405060708090a0b0c0d0e0f", fingerprint.toHex());
+        assertEquals("010203", fingerprint1.toHex());
+        assertEquals("10010203", fingerprint1.toString());
+    }
+
+    @Test
+    public void testOfException() {
+        try {
+            Fingerprint.of(0L, null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        try {
+            Fingerprint.of(0L, new byte[Fingerprint.MAX_DIGEST_LENGTH + 1]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriteTo() {
+        byte[] buf = new byte[Fingerprint.BINARY_LENGTH + 2];
+        assertEquals(Fingerprint.BINARY_LENGTH + 1, fingerprint1.writeTo(buf, 1));
+
+        byte[] expected = new byte[buf.length];
+        expected[8] = 10;
+        expected[9] = 1;
+        expected[10] = 2;
+        expected[11] = 3;
+        assertArrayEquals(expected, buf);
+
+        try {
+            fingerprint1.writeTo(buf, 3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompareTo() {
+        verifyCompareTo(fingerprint1, fingerprint1Copy, fingerprint2);
+        assertTrue(Fingerprint.of(1L, new byte[] {9}).compareTo(fingerprint1) < 0);
+    }
+
+    @Test
+    public void testHashCode() {
+        verifyHashCode(fingerprint1, fingerprint1Copy);
+    }
+
+    @Test
+    public void testEquals() {
+        verifyEquals(fingerprint1, fingerprint1Copy, fingerprint2);
+        assertFalse(fingerprint1.equals(Fingerprint.of(10L, new byte[] {1, 2, 3, 0})));
+        assertFalse(fingerprint1.equals(Fingerprint.of(11L, new byte[] {1, 2, 3})));
+    }
+
+    @Test
+    public void testToString() {
+        verifyToString(fingerprint1);
+    }
+
+}
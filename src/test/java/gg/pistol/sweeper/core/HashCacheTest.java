@@ -0,0 +1,152 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashCacheTest {
+
+    private File cacheFile;
+    private File existingFile;
+    private Fingerprint fingerprint;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = File.createTempFile("sweeper-cache", null);
+        cacheFile.delete();
+        existingFile = File.createTempFile("sweeper", null);
+        fingerprint = Fingerprint.of(10L, new byte[] {1, 2, 3});
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+        existingFile.delete();
+    }
+
+    @Test
+    public void testGet() {
+        HashCache cache = new HashCache(cacheFile, StandardHashAlgorithm.SHA_1);
+        assertNull(cache.get("foo", 10L, 100L, null));
+
+        cache.put("foo", 100L, "key", fingerprint);
+        assertEquals(fingerprint, cache.get("foo", 10L, 100L, "key"));
+        assertNull(cache.get("bar", 10L, 100L, "key"));
+
+        // a stale entry is removed
+        assertNull(cache.get("foo", 10L, 100L, "other"));
+        assertNull(cache.get("foo", 10L, 100L, "key"));
+
+        cache.put("foo", 100L, null, fingerprint);
+        assertNull(cache.get("foo", 11L, 100L, null));
+        cache.put("foo", 100L, null, fingerprint);
+        assertNull(cache.get("foo", 10L, 101L, null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGetException() {
+        try {
+            new HashCache(cacheFile, StandardHashAlgorithm.SHA_1).get(null, 0L, 0L, null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        assertEquals(0, HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1).size());
+
+        HashCache cache = new HashCache(cacheFile, StandardHashAlgorithm.SHA_1);
+        cache.put("foo", 100L, "key", fingerprint);
+        cache.put(existingFile.getPath(), 200L, null, fingerprint);
+        cache.save();
+
+        cache = HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1);
+        assertEquals(2, cache.size());
+        assertEquals(fingerprint, cache.get("foo", 10L, 100L, "key"));
+        assertEquals(fingerprint, cache.get(existingFile.getPath(), 10L, 200L, null));
+
+        // the cache is bound to the hash algorithm
+        assertEquals(0, HashCache.load(cacheFile, StandardHashAlgorithm.SHA_256).size());
+    }
+
+    @Test
+    public void testSaveEviction() throws Exception {
+        HashCache cache = new HashCache(cacheFile, StandardHashAlgorithm.SHA_1);
+        cache.put("foo", 100L, null, fingerprint);
+        cache.put("bar", 200L, null, fingerprint);
+        cache.save();
+
+        // the entries are kept while they are used by at least one of the last analyses
+        for (int i = 1; i < HashCache.MAX_UNUSED_ANALYSES; i++) {
+            cache = HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1);
+            if (i == HashCache.MAX_UNUSED_ANALYSES - 1) {
+                assertEquals(fingerprint, cache.get("bar", 10L, 200L, null));
+            }
+            cache.save();
+        }
+        cache = HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1);
+        assertEquals(2, cache.size());
+
+        cache.save();
+        cache = HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1);
+        assertEquals(1, cache.size());
+        assertEquals(fingerprint, cache.get("bar", 10L, 200L, null));
+    }
+
+    @Test
+    public void testSaveReplace() throws Exception {
+        HashCache cache = new HashCache(cacheFile, StandardHashAlgorithm.SHA_1);
+        cache.put("foo", 100L, null, fingerprint);
+        cache.save();
+        cache.put("bar", 200L, null, fingerprint);
+        cache.save();
+
+        assertEquals(2, HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1).size());
+        assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testLoadException() throws Exception {
+        OutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(new byte[] {1, 2, 3, 4, 5});
+        } finally {
+            out.close();
+        }
+
+        try {
+            HashCache.load(cacheFile, StandardHashAlgorithm.SHA_1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -20,8 +20,19 @@ package gg.pistol.sweeper.core;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import gg.pistol.sweeper.core.AnalysisOptions.ReadMode;
+
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
@@ -44,20 +55,121 @@ public class HashFunctionTest {
 
     @Test
     public void testCompute() throws Exception {
-        assertEquals("0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", hash.compute(inputStream, listener, abortFlag));
+        assertEquals("0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", toHex(hash.compute(inputStream, listener, abortFlag)));
 
         inputStream = new ByteArrayInputStream("".getBytes("UTF-8"));
-        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", hash.compute(inputStream, listener, abortFlag));
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", toHex(hash.compute(inputStream, listener, abortFlag)));
 
         inputStream = new ByteArrayInputStream(new byte[6 * (1 << 20)]); // 6 MB
         hash.compute(inputStream, listener, abortFlag);
         verify(listener).incrementTargetProgress(anyLong());
     }
 
+    @Test
+    public void testComputeAlgorithm() throws Exception {
+        hash = new HashFunction(StandardHashAlgorithm.SHA_256, ReadMode.CHANNEL);
+        assertEquals("2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae",
+                toHex(hash.compute(inputStream, listener, abortFlag)));
+        assertEquals(StandardHashAlgorithm.SHA_256, hash.getAlgorithm());
+
+        hash = new HashFunction(StandardHashAlgorithm.MURMUR3_128, ReadMode.CHANNEL);
+        inputStream = new ByteArrayInputStream("foo".getBytes("UTF-8"));
+        assertEquals(16, hash.compute(inputStream, listener, abortFlag).length);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        for (StandardHashAlgorithm algorithm : StandardHashAlgorithm.values()) {
+            hash = new HashFunction(algorithm, ReadMode.STREAM);
+            String expected = toHex(hash.compute(new ByteArrayInputStream("foobar".getBytes("UTF-8")), listener,
+                    abortFlag));
+            String expectedPrefix = toHex(hash.compute(new ByteArrayInputStream("foo".getBytes("UTF-8")), listener,
+                    abortFlag));
+
+            MessageDigest digest = hash.newResumableDigest();
+            InputStream stream = new ByteArrayInputStream("foobar".getBytes("UTF-8"));
+            assertEquals(3L, hash.update(digest, stream, 3L, listener, abortFlag));
+            assertEquals(expectedPrefix, toHex(HashFunction.intermediateDigest(digest)));
+            assertEquals(3L, hash.update(digest, stream, Long.MAX_VALUE, listener, abortFlag));
+            assertEquals(expected, toHex(digest.digest()));
+        }
+    }
+
+    @Test
+    public void testComputeChannel() throws Exception {
+        File file = File.createTempFile("sweeper", null);
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write("foo".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        for (ReadMode mode : ReadMode.values()) {
+            assertEquals("0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", computeChannel(mode, file));
+        }
+
+        out = new FileOutputStream(file);
+        try {
+            out.write(new byte[6 * (1 << 20)]); // 6 MB
+        } finally {
+            out.close();
+        }
+        for (ReadMode mode : ReadMode.values()) {
+            assertEquals("3fe7a5994304d180a443254fb3f512253be3a29d", computeChannel(mode, file));
+        }
+        verify(listener, times(ReadMode.values().length)).incrementTargetProgress(anyLong());
+        file.delete();
+    }
+
+    private String computeChannel(ReadMode mode, File file) throws Exception {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            return toHex(new HashFunction(StandardHashAlgorithm.SHA_1, mode).compute(channel, listener, abortFlag));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private String toHex(byte[] digest) {
+        return Fingerprint.of(0L, digest).toHex();
+    }
+
+    @Test
+    public void testComputeFingerprints() throws Exception {
+        // more fingerprints than the buffer can hold
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        byte[] bytes = new byte[1000 * Fingerprint.BINARY_LENGTH];
+        for (int i = 0; i < 1000; i++) {
+            Fingerprint fingerprint = Fingerprint.of(i, new byte[] {(byte) i, 1, 2});
+            fingerprints.add(fingerprint);
+            fingerprint.writeTo(bytes, i * Fingerprint.BINARY_LENGTH);
+        }
+        assertEquals(toHex(hash.compute(new ByteArrayInputStream(bytes), listener, abortFlag)),
+                toHex(hash.compute(fingerprints, abortFlag)));
+
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709",
+                toHex(hash.compute(Collections.<Fingerprint>emptyList(), abortFlag)));
+
+        try {
+            hash.compute(fingerprints, new AtomicBoolean(true));
+            fail();
+        } catch (SweeperAbortException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testComputeException() throws Exception {
         try {
-            hash.compute(null, listener, abortFlag);
+            hash.compute((InputStream) null, listener, abortFlag);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        try {
+            hash.compute((FileChannel) null, listener, abortFlag);
             fail();
         } catch (NullPointerException e) {
             // expected
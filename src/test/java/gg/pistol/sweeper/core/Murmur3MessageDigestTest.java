@@ -0,0 +1,78 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class Murmur3MessageDigestTest {
+
+    private static final String FOX = "The quick brown fox jumps over the lazy dog";
+
+    private MessageDigest digest;
+
+    @Before
+    public void setUp() {
+        digest = new Murmur3MessageDigest("MurmurHash3-128");
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        assertEquals(16, digest.getDigestLength());
+        assertEquals("00000000000000000000000000000000", toHex(digest.digest()));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", toHex(digest.digest(FOX.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testUpdateInChunks() throws Exception {
+        byte[] bytes = FOX.getBytes("UTF-8");
+        String expected = toHex(digest.digest(bytes));
+
+        for (int chunk = 1; chunk <= bytes.length; chunk++) {
+            for (int i = 0; i < bytes.length; i += chunk) {
+                digest.update(bytes, i, Math.min(chunk, bytes.length - i));
+            }
+            assertEquals(expected, toHex(digest.digest()));
+        }
+
+        for (byte b : bytes) {
+            digest.update(b);
+        }
+        assertEquals(expected, toHex(digest.digest()));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        digest.update(FOX.getBytes("UTF-8"));
+        digest.reset();
+        assertEquals("00000000000000000000000000000000", toHex(digest.digest()));
+    }
+
+    private String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+}
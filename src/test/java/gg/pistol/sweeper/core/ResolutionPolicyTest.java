@@ -0,0 +1,137 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import gg.pistol.sweeper.core.SweeperPoll.Mark;
+
+import java.io.File;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class ResolutionPolicyTest {
+
+    private ResolutionPolicy policy;
+
+    private TargetImpl target1;
+    private TargetImpl target2;
+    private TargetImpl target3;
+
+    @Before
+    public void setUp() {
+        policy = new ResolutionPolicy();
+        target1 = mockTarget("a" + File.separator + "foo", 300L);
+        target2 = mockTarget("b" + File.separator + "foo", 100L);
+        target3 = mockTarget("bc" + File.separator + "x" + File.separator + "foo", 200L);
+    }
+
+    private TargetImpl mockTarget(String name, long modificationDate) {
+        TargetImpl target = mock(TargetImpl.class);
+        when(target.getName()).thenReturn(name);
+        when(target.getModificationDate()).thenReturn(new DateTime(modificationDate));
+        return target;
+    }
+
+    private Poll resolve(TargetImpl... targets) {
+        Poll poll = new Poll(1, mock(DuplicateGroup.class), ImmutableSet.copyOf(targets));
+        policy.resolve(poll);
+        return poll;
+    }
+
+    private void verifyRetained(Poll poll, TargetImpl retained) {
+        for (Target target : poll.getTargets()) {
+            assertEquals(target == retained ? Mark.RETAIN : Mark.DELETE, poll.getMark(target));
+        }
+    }
+
+    @Test
+    public void testPreferOldest() {
+        policy.preferOldest();
+        verifyRetained(resolve(target1, target2, target3), target2);
+    }
+
+    @Test
+    public void testPreferNewest() {
+        policy.preferNewest();
+        verifyRetained(resolve(target1, target2, target3), target1);
+
+        // the missing dates come last
+        when(target1.getModificationDate()).thenReturn(null);
+        verifyRetained(resolve(target1, target2, target3), target3);
+    }
+
+    @Test
+    public void testPreferShortestPath() {
+        policy.preferShortestPath().preferOldest();
+        verifyRetained(resolve(target1, target2, target3), target2);
+    }
+
+    @Test
+    public void testPreferPrefix() {
+        policy.preferPrefix("b").preferNewest();
+        verifyRetained(resolve(target1, target2, target3), target3);
+    }
+
+    @Test
+    public void testDeleteUnder() {
+        // "b" does not contain "bc"
+        policy.deleteUnder("b").preferNewest();
+        verifyRetained(resolve(target2, target3), target3);
+
+        policy.deleteUnder("bc" + File.separator);
+        verifyRetained(resolve(target2, target3, target1), target1);
+
+        // one target is retained even when all of them are under the deleted directories
+        verifyRetained(resolve(target2, target3), target3);
+    }
+
+    @Test
+    public void testRetainedDefault() {
+        policy.preferOldest();
+        Poll poll = new Poll(1, mock(DuplicateGroup.class), ImmutableSet.of(target1, target2, target3));
+
+        // the targets retained by the previous polls are the only candidates
+        poll.mark(target2, Mark.DELETE);
+        policy.resolve(poll);
+        verifyRetained(poll, target3);
+    }
+
+    @Test
+    public void testException() {
+        try {
+            policy.deleteUnder("");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            policy.preferPrefix(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+}
@@ -104,4 +104,16 @@ public class SweeperCountImplTest {
         assertEquals(5, count.getToDeleteSize());
     }
 
+    @Test
+    public void testSetHardLinkFiles() {
+        count.setHardLinkFiles(5);
+        assertEquals(5, count.getHardLinkFiles());
+    }
+
+    @Test
+    public void testSetHardLinkSize() {
+        count.setHardLinkSize(5);
+        assertEquals(5, count.getHardLinkSize());
+    }
+
 }
@@ -45,6 +45,7 @@ public class SweeperImplTest {
 
     private NavigableSet<Resource> resources;
     private SweeperOperationListener listener;
+    private int targetOrder;
 
     @Before
     public void setUp() throws Exception {
@@ -97,11 +98,18 @@ public class SweeperImplTest {
         }
     }
 
+    // The targets are mocked in pre-order (a parent before its children).
     private TargetImpl mockTarget(TargetImpl parent, int totalTargets) {
         TargetImpl target = mock(TargetImpl.class);
+        targetOrder++;
+        when(target.getOrder()).thenReturn(targetOrder);
+        when(target.getLastDescendantOrder()).thenReturn(targetOrder);
         if (parent != null) {
             when(target.getParent()).thenReturn(parent);
         }
+        for (TargetImpl ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            when(ancestor.getLastDescendantOrder()).thenReturn(targetOrder);
+        }
         when(target.getTotalTargets()).thenReturn(totalTargets);
         return target;
     }
@@ -165,6 +173,97 @@ public class SweeperImplTest {
         }
     }
 
+    @Test
+    public void testNextPollUnresolved() throws Exception {
+        TargetImpl file1 = mockTarget(null, 1);
+        TargetImpl file1Copy = mockTarget(null, 1);
+        TargetImpl file2 = mockTarget(null, 1);
+        TargetImpl file2Copy = mockTarget(null, 1);
+        TargetImpl file3 = mockTarget(null, 1);
+        TargetImpl file3Copy = mockTarget(null, 1);
+
+        DuplicateGroup dup1 = mockDuplicate(3, file1, file1Copy);
+        DuplicateGroup dup2 = mockDuplicate(2, file2, file2Copy);
+        DuplicateGroup dup3 = mockDuplicate(1, file3, file3Copy);
+
+        analyzerReturns(dup1, dup2, dup3);
+        sweeper.analyze(resources, listener);
+
+        assertEquals(ImmutableSet.of(file1, file1Copy), sweeper.nextPoll().getTargets());
+        SweeperPoll poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(file2, file2Copy), poll.getTargets());
+        poll.mark(file2, Mark.RETAIN);
+        poll.mark(file2Copy, Mark.DELETE);
+        assertEquals(ImmutableSet.of(file3, file3Copy), sweeper.nextPoll().getTargets());
+
+        // the polls wrap around to the first unresolved duplicate group skipping the resolved dup2
+        assertEquals(ImmutableSet.of(file1, file1Copy), sweeper.nextPoll().getTargets());
+        poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(file3, file3Copy), poll.getTargets());
+        poll.mark(file3Copy, Mark.DELETE);
+
+        // the duplicate group of the last poll is not polled again right away even if it is still unresolved
+        assertEquals(ImmutableSet.of(file1, file1Copy), sweeper.nextPoll().getTargets());
+        assertNull(sweeper.nextPoll());
+        assertEquals(ImmutableSet.of(file1, file1Copy), sweeper.getCurrentPoll().getTargets());
+    }
+
+    /*
+     * Test the duplicate groups resolved by the marks of their ancestors in the following setup:
+     *
+     *            --file1
+     *           /
+     * null---dir---file2
+     *     \
+     *      --dirCopy---file1Copy
+     *               \
+     *                --file2Copy
+     */
+    @Test
+    public void testNextPollResolvedByAncestors() throws Exception {
+        TargetImpl dir = mockTarget(null, 3);
+        TargetImpl file1 = mockTarget(dir, 1);
+        TargetImpl file2 = mockTarget(dir, 1);
+
+        TargetImpl dirCopy = mockTarget(null, 3);
+        TargetImpl file1Copy = mockTarget(dirCopy, 1);
+        TargetImpl file2Copy = mockTarget(dirCopy, 1);
+
+        DuplicateGroup dup1 = mockDuplicate(3, dir, dirCopy);
+        DuplicateGroup dup2 = mockDuplicate(2, file1, file1Copy);
+        DuplicateGroup dup3 = mockDuplicate(1, file2, file2Copy);
+
+        analyzerReturns(dup1, dup2, dup3);
+        sweeper.analyze(resources, listener);
+
+        assertEquals(ImmutableSet.of(dir, dirCopy), sweeper.nextPoll().getTargets());
+        SweeperPoll poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(file1, file1Copy), poll.getTargets());
+        poll.mark(file1, Mark.RETAIN);
+        poll.mark(file1Copy, Mark.DELETE);
+        assertEquals(ImmutableSet.of(file2, file2Copy), sweeper.nextPoll().getTargets());
+
+        // marking a descendant does not resolve the duplicate group of the ancestors
+        poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(dir, dirCopy), poll.getTargets());
+
+        // deleting an ancestor resolves the duplicate groups of its descendants
+        poll.mark(dir, Mark.RETAIN);
+        poll.mark(dirCopy, Mark.DELETE);
+        assertNull(sweeper.nextPoll());
+
+        // changing the mark of the ancestor makes the duplicate groups of the descendants unresolved again (dup2 stays
+        // resolved by the mark of file1Copy)
+        sweeper.getCurrentPoll().mark(dirCopy, Mark.DECIDE_LATER);
+        poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(file2, file2Copy), poll.getTargets());
+        assertEquals(Mark.RETAIN, poll.getMark(file2));
+        assertEquals(Mark.DELETE, poll.getMark(file2Copy));
+
+        assertEquals(ImmutableSet.of(dir, dirCopy), sweeper.nextPoll().getTargets());
+        assertNull(sweeper.nextPoll());
+    }
+
     /*
      * Test the default marking and the deleted targets counter in the following setup:
      *
@@ -220,6 +319,209 @@ public class SweeperImplTest {
         assertNull(sweeper.nextPoll());
     }
 
+    /*
+     * Test the deleted targets counters while marking, undoing and marking again nested targets in the following
+     * setup:
+     *
+     *            --file1
+     *           /
+     * null---dir---file2
+     *     \
+     *      --dirCopy---file1Copy
+     *               \
+     *                --file2Copy
+     */
+    @Test
+    public void testToDeleteCount() throws Exception {
+        TargetImpl dir = mockCountedTarget(null, 3, 2, 30L);
+        TargetImpl file1 = mockCountedTarget(dir, 1, 1, 10L);
+        TargetImpl file2 = mockCountedTarget(dir, 1, 1, 20L);
+
+        TargetImpl dirCopy = mockCountedTarget(null, 3, 2, 30L);
+        TargetImpl file1Copy = mockCountedTarget(dirCopy, 1, 1, 10L);
+        TargetImpl file2Copy = mockCountedTarget(dirCopy, 1, 1, 20L);
+
+        DuplicateGroup dup1 = mockDuplicate(3, dir, dirCopy);
+        DuplicateGroup dup2 = mockDuplicate(2, file1, file1Copy);
+        DuplicateGroup dup3 = mockDuplicate(1, file2, file2Copy);
+
+        analyzerReturns(dup1, dup2, dup3);
+        sweeper.analyze(resources, listener);
+
+        sweeper.nextPoll();
+        SweeperPoll poll = sweeper.nextPoll();
+        poll.mark(file1, Mark.RETAIN);
+        poll.mark(file1Copy, Mark.DELETE);
+        sweeper.nextPoll();
+        assertToDeleteCount(1, 1, 10L);
+
+        // the already deleted file1Copy is not counted again with its ancestor
+        poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(dir, dirCopy), poll.getTargets());
+        poll.mark(dir, Mark.RETAIN);
+        poll.mark(dirCopy, Mark.DELETE);
+        assertNull(sweeper.nextPoll());
+        assertToDeleteCount(3, 2, 30L);
+
+        // changing the poll of file1Copy undoes the later polls first (dirCopy is uncounted while file1Copy is still
+        // deleted)
+        sweeper.previousPoll();
+        poll = sweeper.previousPoll();
+        assertEquals(ImmutableSet.of(file1, file1Copy), poll.getTargets());
+        poll.mark(file1, Mark.DELETE);
+        poll.mark(file1Copy, Mark.RETAIN);
+        poll = sweeper.nextPoll();
+        assertToDeleteCount(1, 1, 10L);
+
+        // the deleted file1 is not counted again with its ancestor
+        assertEquals(ImmutableSet.of(file2, file2Copy), poll.getTargets());
+        poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(dir, dirCopy), poll.getTargets());
+        poll.mark(dir, Mark.DELETE);
+        poll.mark(dirCopy, Mark.RETAIN);
+        assertNull(sweeper.nextPoll());
+        assertToDeleteCount(3, 2, 30L);
+
+        // marking again the other directory counts all of its targets because its descendants are not deleted
+        poll = sweeper.getCurrentPoll();
+        poll.mark(dir, Mark.RETAIN);
+        poll.mark(dirCopy, Mark.DELETE);
+        assertNull(sweeper.nextPoll());
+        assertToDeleteCount(4, 3, 40L);
+        assertEquals(ImmutableSet.of(file1, dirCopy), ImmutableSet.copyOf(sweeper.getToDeleteTargets()));
+    }
+
+    /*
+     * Test the deleted targets counters while marking from the bottom up and undoing three levels of nested targets in
+     * the following setup:
+     *
+     * null---top---middle---file
+     *     \
+     *      --topCopy---middleCopy---fileCopy
+     */
+    @Test
+    public void testToDeleteCountThreeLevels() throws Exception {
+        TargetImpl top = mockCountedTarget(null, 3, 1, 10L);
+        TargetImpl middle = mockCountedTarget(top, 2, 1, 10L);
+        TargetImpl file = mockCountedTarget(middle, 1, 1, 10L);
+
+        TargetImpl topCopy = mockCountedTarget(null, 3, 1, 10L);
+        TargetImpl middleCopy = mockCountedTarget(topCopy, 2, 1, 10L);
+        TargetImpl fileCopy = mockCountedTarget(middleCopy, 1, 1, 10L);
+
+        DuplicateGroup dup1 = mockDuplicate(3, file, fileCopy);
+        DuplicateGroup dup2 = mockDuplicate(2, middle, middleCopy);
+        DuplicateGroup dup3 = mockDuplicate(1, top, topCopy);
+
+        analyzerReturns(dup1, dup2, dup3);
+        sweeper.analyze(resources, listener);
+
+        SweeperPoll poll = sweeper.nextPoll();
+        assertEquals(ImmutableSet.of(file, fileCopy), poll.getTargets());
+        poll.mark(file, Mark.RETAIN);
+        poll.mark(fileCopy, Mark.DELETE);
+        poll = sweeper.nextPoll();
+        assertToDeleteCount(1, 1, 10L);
+
+        assertEquals(ImmutableSet.of(middle, middleCopy), poll.getTargets());
+        poll.mark(middle, Mark.RETAIN);
+        poll.mark(middleCopy, Mark.DELETE);
+        poll = sweeper.nextPoll();
+        assertToDeleteCount(2, 1, 10L);
+
+        // the deleted fileCopy is nested in the deleted middleCopy so it is not subtracted again from topCopy
+        assertEquals(ImmutableSet.of(top, topCopy), poll.getTargets());
+        poll.mark(top, Mark.RETAIN);
+        poll.mark(topCopy, Mark.DELETE);
+        assertNull(sweeper.nextPoll());
+        assertToDeleteCount(3, 1, 10L);
+
+        // undoing topCopy uncounts only its targets that were not already deleted
+        poll = sweeper.getCurrentPoll();
+        poll.mark(top, Mark.DELETE);
+        poll.mark(topCopy, Mark.RETAIN);
+        assertNull(sweeper.nextPoll());
+        assertToDeleteCount(5, 2, 20L);
+        assertEquals(ImmutableSet.of(fileCopy, middleCopy, top),
+                ImmutableSet.copyOf(sweeper.getToDeleteTargets()));
+    }
+
+    private TargetImpl mockCountedTarget(TargetImpl parent, int totalTargets, int totalTargetFiles, long size) {
+        TargetImpl target = mockTarget(parent, totalTargets);
+        when(target.getTotalTargetFiles()).thenReturn(totalTargetFiles);
+        when(target.getSize()).thenReturn(size);
+        return target;
+    }
+
+    private void assertToDeleteCount(int targets, int targetFiles, long size) {
+        assertEquals(targets, count.getToDeleteTargets());
+        assertEquals(targetFiles, count.getToDeleteTargetFiles());
+        assertEquals(size, count.getToDeleteSize());
+    }
+
+    /*
+     * Resolve all the polls deleting the copies in the following setup:
+     *
+     *            --file1
+     *           /
+     * null---dir---file2
+     *     \
+     *      --dirCopy---file1Copy
+     *               \
+     *                --file2Copy
+     */
+    @Test
+    public void testResolve() throws Exception {
+        TargetImpl dir = mockTarget(null, 3);
+        TargetImpl file1 = mockTarget(dir, 1);
+        TargetImpl file2 = mockTarget(dir, 1);
+
+        TargetImpl dirCopy = mockTarget(null, 3);
+        TargetImpl file1Copy = mockTarget(dirCopy, 1);
+        TargetImpl file2Copy = mockTarget(dirCopy, 1);
+
+        when(dir.getName()).thenReturn("dir");
+        when(file1.getName()).thenReturn("dir/file1");
+        when(file2.getName()).thenReturn("dir/file2");
+        when(dirCopy.getName()).thenReturn("copy");
+        when(file1Copy.getName()).thenReturn("copy/file1");
+        when(file2Copy.getName()).thenReturn("copy/file2");
+
+        DuplicateGroup dup1 = mockDuplicate(3, dir, dirCopy);
+        DuplicateGroup dup2 = mockDuplicate(2, file1, file1Copy);
+        DuplicateGroup dup3 = mockDuplicate(1, file2, file2Copy);
+
+        analyzerReturns(dup1, dup2, dup3);
+        sweeper.analyze(resources, listener);
+
+        // the poll of the directories is left undecided and the poll of file1 is resolved manually
+        SweeperPoll poll = sweeper.nextPoll();
+        poll.mark(dir, Mark.DECIDE_LATER);
+        poll.mark(dirCopy, Mark.DECIDE_LATER);
+        poll = sweeper.nextPoll();
+        poll.mark(file1, Mark.RETAIN);
+        poll.mark(file1Copy, Mark.DELETE);
+
+        // the remaining polls of dup3 and dup1 are resolved by preferring the targets from "dir"
+        assertEquals(2, sweeper.resolve(new ResolutionPolicy().preferPrefix("dir")));
+
+        assertEquals(ImmutableSet.of(file1Copy, file2Copy, dirCopy), ImmutableSet.copyOf(sweeper.getToDeleteTargets()));
+        assertEquals(3, count.getToDeleteTargets());
+        assertNull(sweeper.nextPoll());
+
+        // the current poll is the last resolved one
+        poll = sweeper.getCurrentPoll();
+        assertEquals(ImmutableSet.of(dir, dirCopy), poll.getTargets());
+        assertEquals(Mark.DELETE, poll.getMark(dirCopy));
+
+        try {
+            sweeper.resolve(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testMarkException() throws Exception {
         TargetImpl file = mockTarget(null, 0);
@@ -22,12 +22,15 @@ import static org.mockito.Mockito.*;
 import static gg.pistol.sweeper.test.ObjectVerifier.*;
 
 import gg.pistol.sweeper.core.Target.Type;
+import gg.pistol.sweeper.core.resource.PhysicalResourceFile;
 import gg.pistol.sweeper.core.resource.Resource;
 import gg.pistol.sweeper.core.resource.ResourceDirectory;
 import gg.pistol.sweeper.core.resource.ResourceFile;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -35,18 +38,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 public class TargetImplTest {
 
-    private ResourceFile resource1;
+    private PhysicalResourceFile resource1;
     private ResourceFile resource1Copy;
     private ResourceFile resource2;
     private ResourceDirectory resourceDir;
 
-    private TargetImpl mockedParent;
+    private TargetImpl root;
 
     private TargetImpl target1;
     private TargetImpl target1Copy;
@@ -63,19 +68,24 @@ public class TargetImplTest {
         resource2 = mockResourceFile("foo");
         resourceDir = mockResourceDirectory("baz", resource1, resource2);
 
-        mockedParent = mock(TargetImpl.class);
+        root = new TargetImpl(ImmutableSet.of(resource1, resource1Copy, resource2, resourceDir));
+        Iterator<TargetImpl> children = root.getChildren().iterator();
 
-        target1 = new TargetImpl(resource1, mockedParent);
-        target1Copy = new TargetImpl(resource1Copy, mockedParent);
-        target2 = new TargetImpl(resource2, mockedParent);
-        targetDir = new TargetImpl(resourceDir, mockedParent);
+        target1 = children.next();
+        target1Copy = children.next();
+        target2 = children.next();
+        targetDir = children.next();
 
         listener = mock(OperationTrackingListener.class);
         hashFunction = new HashFunction();
     }
 
-    private ResourceFile mockResourceFile(String name) {
-        ResourceFile res = mock(ResourceFile.class);
+    private static TargetImpl newTarget(Resource resource) {
+        return new TargetImpl(ImmutableSet.of(resource)).getChildren().iterator().next();
+    }
+
+    private PhysicalResourceFile mockResourceFile(String name) {
+        PhysicalResourceFile res = mock(PhysicalResourceFile.class);
         when(res.getName()).thenReturn(name);
         return res;
     }
@@ -123,7 +133,7 @@ public class TargetImplTest {
     public void testConstructor() throws Exception {
         assertEquals("bar", target1.getName());
         assertEquals(resource1, target1.getResource());
-        assertEquals(mockedParent, target1.getParent());
+        assertEquals(root, target1.getParent());
 
         assertEquals(Type.FILE, target1.getType());
         assertTrue(target1.isPartiallyExpanded());
@@ -134,21 +144,21 @@ public class TargetImplTest {
         assertTrue(targetDir.getChildren().isEmpty());
 
         try {
-            new TargetImpl(null, mockedParent);
+            new TargetImpl(null, TargetTable.ROOT);
             fail();
         } catch (NullPointerException e) {
             // expected
         }
 
         try {
-            new TargetImpl(resource1, null);
+            new TargetImpl(root.getTable(), 0);
             fail();
-        } catch (NullPointerException e) {
+        } catch (IllegalArgumentException e) {
             // expected
         }
 
         try {
-            new TargetImpl(mock(Resource.class), mockedParent);
+            new TargetImpl(ImmutableSet.of(mock(Resource.class)));
             fail();
         } catch (IllegalArgumentException e) {
             // expected, resource is not a ResourceFile or a ResourceDirectory
@@ -189,6 +199,23 @@ public class TargetImplTest {
         verify(listener).updateException(eq(targetDir), any(SweeperException.class));
     }
 
+    @Test
+    public void testExpandExcluded() throws Exception {
+        ResourceDirectory.FilteredResourceCollectionResponse response =
+                mock(ResourceDirectory.FilteredResourceCollectionResponse.class);
+        doReturn(ImmutableList.of(resource1)).when(response).getResources();
+        doReturn(Collections.emptyList()).when(response).getExceptions();
+        when(response.hasExcludedResources()).thenReturn(true);
+        when(resourceDir.getSubresources()).thenReturn(response);
+        targetDir.expand(listener);
+
+        // the excluded entries are not errors but the children are not the whole content
+        assertTrue(targetDir.isPartiallyExpanded());
+        assertFalse(targetDir.isExpanded());
+        assertEquals(1, targetDir.getChildren().size());
+        verify(listener, never()).updateException(any(Target.class), any(SweeperException.class));
+    }
+
     @Test
     public void testComputeFileSize() throws Exception {
         long size = 5L;
@@ -226,7 +253,8 @@ public class TargetImplTest {
         int target2Subtargets = 3;
         int target2Files = 2;
         TargetImpl target2Spy = prepareChildToSize(target2, target2Size, target2Subtargets, target2Files);
-        TargetImpl targetDirSpy = prepareDirToSize(targetDir, isFullExpanded, target1Spy, target2Spy);
+        // the spies share the state of the node with the spied target, so each call sizes a new directory
+        TargetImpl targetDirSpy = prepareDirToSize(newTarget(resourceDir), isFullExpanded, target1Spy, target2Spy);
 
         assertFalse(targetDirSpy.isPartiallySized());
         assertFalse(targetDirSpy.isSized());
@@ -318,12 +346,162 @@ public class TargetImplTest {
             assertTrue(target1.isHashed());
 
             assertEquals(modificationDate, target1.getModificationDate().getMillis());
-            assertEquals(size + "0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", target1.getHash());
+            assertEquals(size + "0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", target1.getHash().toString());
         }
 
         verify(listener).updateTarget(target1);
     }
 
+    @Test
+    public void testComputeHashRound() throws Exception {
+        when(resource1.getModificationDate()).thenReturn(new DateTime(100L));
+        when(resource1.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream("foobar".getBytes("UTF-8"));
+            }
+        });
+        long size = 6L;
+
+        TargetImpl target = prepareFileToPartialHash(target1, size);
+        for (int i = 1; i <= 2; i++) {
+            target.computeHashRound(hashFunction, null, 3, false, listener, new AtomicBoolean());
+
+            assertFalse(target.isPartiallyHashed());
+            assertFalse(target.isHashed());
+            assertEquals(size + "0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33", target.getPartialHash().toString());
+        }
+        verify(listener).updateTarget(target);
+
+        // the next round continues from the previous one
+        target.computeHashRound(hashFunction, null, 5, false, listener, new AtomicBoolean());
+        assertEquals(size + "bf3f6e65daa76dde92612355478885eb52473854", target.getPartialHash().toString()); // "fooba"
+
+        target.computeHash(hashFunction, listener, new AtomicBoolean());
+        assertTrue(target.isHashed());
+        assertEquals(size + "8843d7f92416211de9ebb963ff4ce28125932878", target.getHash().toString());
+
+        // the hash of the "fo" prefix followed by the "ar" tail
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.computeHashRound(hashFunction, null, 2, true, listener, new AtomicBoolean());
+        assertFalse(target.isHashed());
+        assertEquals(size + "a4b03c05058bf0a33ab2a5aeb33cd0a7027cdd71", target.getPartialHash().toString());
+
+        // the windows are covering the whole content
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.computeHashRound(hashFunction, null, 3, true, listener, new AtomicBoolean());
+        assertTrue(target.isHashed());
+        assertEquals(size + "8843d7f92416211de9ebb963ff4ce28125932878", target.getPartialHash().toString());
+        assertEquals(target.getHash(), target.getPartialHash());
+    }
+
+    @Test
+    public void testComputeHashCache() throws Exception {
+        long size = 3L;
+        HashCache hashCache = new HashCache(new File("cache"), StandardHashAlgorithm.SHA_1);
+        when(resource1.getModificationDate()).thenReturn(new DateTime(100L));
+        when(resource1.getFileKey()).thenReturn("key");
+        when(resource1.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream("foo".getBytes("UTF-8"));
+            }
+        });
+
+        TargetImpl target = prepareFileToPartialHash(target1, size);
+        target.computeHash(hashFunction, hashCache, listener, new AtomicBoolean());
+        Fingerprint hash = target.getHash();
+        assertEquals(hash, hashCache.get("bar", size, 100L, "key"));
+        verify(resource1).getInputStream();
+
+        // the cached hash is reused without reading the content
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.computeHash(hashFunction, hashCache, listener, new AtomicBoolean());
+        assertTrue(target.isHashed());
+        assertEquals(hash, target.getHash());
+        assertEquals(100L, target.getModificationDate().getMillis());
+
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.computeHashRound(hashFunction, hashCache, 1, false, listener, new AtomicBoolean());
+        assertTrue(target.isHashed());
+        assertEquals(hash, target.getPartialHash());
+        verify(resource1).getInputStream();
+
+        // the file was modified
+        when(resource1.getModificationDate()).thenReturn(new DateTime(200L));
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.computeHash(hashFunction, hashCache, listener, new AtomicBoolean());
+        verify(resource1, times(2)).getInputStream();
+        assertEquals(hash, hashCache.get("bar", size, 200L, "key"));
+        assertNull(hashCache.get("bar", size, 200L, "other"));
+    }
+
+    private TargetImpl prepareFileToPartialHash(TargetImpl target, long size) {
+        target = spy(target);
+        when(target.isPartiallySized()).thenReturn(true);
+        when(target.isSized()).thenReturn(true);
+        when(target.getSize()).thenReturn(size);
+        return target;
+    }
+
+    @Test
+    public void testCopyHash() throws Exception {
+        when(resource1.getModificationDate()).thenReturn(new DateTime(100L));
+        when(resource1.getInputStream()).thenReturn(new ByteArrayInputStream("foo".getBytes("UTF-8")));
+        long size = 3L;
+        TargetImpl target = prepareFileToPartialHash(target1, size);
+        TargetImpl link = prepareFileToPartialHash(target2, size);
+
+        try {
+            link.copyHash(target, listener);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected because target is not hashed
+        }
+
+        target.computeHash(hashFunction, listener, new AtomicBoolean());
+        link.copyHash(target, listener);
+        assertTrue(link.isPartiallyHashed());
+        assertTrue(link.isHashed());
+        assertEquals(target.getHash(), link.getHash());
+        assertEquals(100L, link.getModificationDate().getMillis());
+        verify(resource2, never()).getInputStream();
+        verify(listener).updateTarget(link);
+
+        target = prepareFileToPartialHash(newTarget(resource1), size);
+        target.setContentCompared(new DateTime(100L));
+        link = prepareFileToPartialHash(newTarget(resource2), size);
+        try {
+            link.copyHash(target, listener);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected because target has no hash
+        }
+    }
+
+    @Test
+    public void testComputeHashRoundException() throws Exception {
+        try {
+            target1.computeHashRound(hashFunction, null, 3, false, listener, new AtomicBoolean());
+            fail();
+        } catch (IllegalStateException e) {
+            // expected, not sized
+        }
+
+        try {
+            targetDir.computeHashRound(hashFunction, null, 3, false, listener, new AtomicBoolean());
+            fail();
+        } catch (IllegalStateException e) {
+            // expected, not a file
+        }
+
+        when(resource1.getInputStream()).thenThrow(new IOException());
+        TargetImpl target = prepareFileToPartialHash(target1, 6L);
+        target.computeHashRound(hashFunction, null, 3, false, listener, new AtomicBoolean());
+
+        assertTrue(target.isPartiallyHashed());
+        assertFalse(target.isHashed());
+        verify(listener).updateException(eq(target), any(SweeperException.class));
+    }
+
     @Test
     public void testComputeDirectoryHash() throws Exception {
         long modificationDate1 = 100L;
@@ -335,19 +513,34 @@ public class TargetImplTest {
         target2 = prepareChildToHash(target2, modificationDate2, size2, "bar");
 
         verifyComputeHashDirectory(Math.max(modificationDate1, modificationDate2),
-                (size1 + size2) + "889ed5b4ac3cb37eb2a39531fb640e7d4d74c2c0", size1 + size2, targetDir, target1, target2);
+                (size1 + size2) + "567d5c94e505f40e53774b9b4f1305cee909553c", size1 + size2, targetDir, target1, target2);
 
         when(target2.getSize()).thenReturn(0L);
-        verifyComputeHashDirectory(modificationDate1, "foo", size1, new TargetImpl(resourceDir, mockedParent),
+        verifyComputeHashDirectory(modificationDate1, size1 + "666f6f", size1, newTarget(resourceDir),
                 target1, target2);
     }
 
+    @Test
+    public void testComputeDirectoryHashContentCompared() throws Exception {
+        target1 = prepareChildToHash(target1, 100L, 150L, "foo");
+        target2 = spy(target2);
+        target2.setContentCompared(new DateTime(200L));
+        doReturn(250L).when(target2).getSize();
+        targetDir = prepareDirToHash(targetDir, 400L, target1, target2);
+
+        targetDir.computeHash(hashFunction, listener, new AtomicBoolean());
+
+        assertTrue(targetDir.isPartiallyHashed());
+        assertFalse(targetDir.isHashed());
+        verify(listener).updateException(eq(targetDir), any(SweeperException.class));
+    }
+
     private TargetImpl prepareChildToHash(TargetImpl target, long lastModifiedMillis, long size, String hash) {
         target = spy(target);
         when(target.isPartiallyHashed()).thenReturn(true);
         when(target.isHashed()).thenReturn(true);
         when(target.getModificationDate()).thenReturn(new DateTime(lastModifiedMillis));
-        when(target.getHash()).thenReturn(hash);
+        when(target.getHash()).thenReturn(Fingerprint.of(size, hash.getBytes()));
         doReturn(size).when(target).getSize();
         return target;
     }
@@ -373,7 +566,7 @@ public class TargetImplTest {
         assertTrue(target.isPartiallyHashed());
         assertTrue(target.isHashed());
         assertEquals(expectedLastModified, target.getModificationDate().getMillis());
-        assertEquals(expectedHash, target.getHash());
+        assertEquals(expectedHash, target.getHash().toString());
 
         verify(listener).updateTarget(target);
     }
@@ -420,7 +613,7 @@ public class TargetImplTest {
 
         target1 = prepareChildToHash(target1, 0L, 0L, "");
         when(target1.isHashed()).thenReturn(false);
-        targetDir = prepareDirToHash(new TargetImpl(resourceDir, mockedParent), 0L, target1);
+        targetDir = prepareDirToHash(newTarget(resourceDir), 0L, target1);
         targetDir.computeHash(hashFunction, listener, new AtomicBoolean());
         assertTrue(target1.isPartiallyHashed());
         assertFalse(target1.isHashed());
@@ -470,6 +663,50 @@ public class TargetImplTest {
         verify(listener).updateException(eq(target1), any(SweeperException.class));
     }
 
+    @Test
+    public void testIsAncestorOf() {
+        try {
+            targetDir.isAncestorOf(target1);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected because the targets are not numbered
+        }
+
+        // targetDir (2) contains target1 (3) and target2 (4), target1Copy (5) is outside
+        root = new TargetImpl(ImmutableSet.of(resourceDir, resource1Copy));
+        Iterator<TargetImpl> children = root.getChildren().iterator();
+        targetDir = children.next();
+        target1Copy = children.next();
+        targetDir.expand(listener);
+        assertEquals(0, targetDir.getOrder());
+
+        TargetImpl oldTargetDir = targetDir;
+        root = root.getTable().compact().getTarget(TargetTable.ROOT);
+        children = root.getChildren().iterator();
+        targetDir = children.next();
+        target1Copy = children.next();
+        children = targetDir.getChildren().iterator();
+        target1 = children.next();
+        target2 = children.next();
+
+        assertEquals(1, root.getOrder());
+        assertEquals(2, targetDir.getOrder());
+        assertEquals(4, targetDir.getLastDescendantOrder());
+        assertEquals(5, target1Copy.getOrder());
+        assertEquals(5, root.getLastDescendantOrder());
+
+        assertTrue(targetDir.isAncestorOf(target1));
+        assertTrue(targetDir.isAncestorOf(target2));
+        assertFalse(targetDir.isAncestorOf(targetDir));
+        assertFalse(targetDir.isAncestorOf(target1Copy));
+        assertFalse(target1.isAncestorOf(target2));
+        assertFalse(target1.isAncestorOf(targetDir));
+
+        // the targets created before the compaction follow their nodes
+        assertEquals(2, oldTargetDir.getOrder());
+        assertTrue(oldTargetDir.isAncestorOf(target1));
+    }
+
     @Test
     public void testHashCode() {
         verifyHashCode(target1, target1Copy);
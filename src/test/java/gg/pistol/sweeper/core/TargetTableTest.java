@@ -0,0 +1,207 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import gg.pistol.sweeper.core.resource.Resource;
+import gg.pistol.sweeper.core.resource.ResourceDirectory;
+import gg.pistol.sweeper.core.resource.ResourceFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TargetTableTest {
+
+    private TargetTable table;
+
+    private ResourceDirectory dir1;
+    private ResourceDirectory dir2;
+    private ResourceFile file1;
+    private ResourceFile file2;
+    private ResourceFile file3;
+
+    @Before
+    public void setUp() {
+        table = new TargetTable();
+        dir1 = mockResource(ResourceDirectory.class, "dir1");
+        dir2 = mockResource(ResourceDirectory.class, "dir2");
+        file1 = mockResource(ResourceFile.class, "file1");
+        file2 = mockResource(ResourceFile.class, "file2");
+        file3 = mockResource(ResourceFile.class, "file3");
+    }
+
+    private static <T extends Resource> T mockResource(Class<T> resourceClass, String name) {
+        T res = mock(resourceClass);
+        when(res.getName()).thenReturn(name);
+        return res;
+    }
+
+    private static List<Resource> getResources(List<TargetImpl> targets) {
+        List<Resource> ret = new ArrayList<Resource>();
+        for (TargetImpl target : targets) {
+            ret.add(target.getResource());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testAddChildren() {
+        assertEquals(TargetTable.ROOT, table.getLength());
+        assertNull(table.getResource(TargetTable.ROOT));
+        assertNull(table.getParentTarget(TargetTable.ROOT));
+
+        int first = table.addChildren(TargetTable.ROOT, ImmutableList.of(dir1, file1));
+        assertEquals(2, first);
+        assertEquals(4, table.addChildren(first, ImmutableList.of(file2)));
+        assertEquals(4, table.getLength());
+
+        assertEquals(2, table.getChildCount(TargetTable.ROOT));
+        assertEquals(ImmutableList.of(dir1, file1), getResources(table.getChildTargets(TargetTable.ROOT)));
+        assertEquals(ImmutableList.of(file2), getResources(table.getChildTargets(first)));
+        assertTrue(table.getChildTargets(4).isEmpty());
+        assertEquals(dir1, table.getParentTarget(4).getResource());
+        assertEquals("file2".hashCode(), table.getNameHashCode(4));
+        assertEquals(0, table.getOrder(4));
+        assertEquals(0, table.getLastDescendantOrder(4));
+
+        try {
+            table.addChildren(5, ImmutableList.of(file3));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected because there is no node with the id 5
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        List<Resource> resources = Collections.<Resource>nCopies(10000, file1);
+        table.addChildren(TargetTable.ROOT, resources);
+        table.setSize(2, 5L);
+        table.addChildren(TargetTable.ROOT + 1, resources);
+        table.setSize(10002, 7L);
+
+        assertEquals(20001, table.getLength());
+        assertEquals(5L, table.getSize(2));
+        assertEquals(7L, table.getSize(10002));
+        assertEquals(10000, table.getChildTargets(2).size());
+    }
+
+    @Test
+    public void testCompact() {
+        // root---dir1---file1
+        //     \      \
+        //      \      --file2
+        //       --dir2---file3
+        int dir1Id = table.addChildren(TargetTable.ROOT, ImmutableList.of(dir1, dir2));
+        int dir2Id = dir1Id + 1;
+        int file3Id = table.addChildren(dir2Id, ImmutableList.of(file3));
+        int file1Id = table.addChildren(dir1Id, ImmutableList.of(file1, file2));
+        table.setSize(file1Id, 5L);
+        table.setFlags(file1Id, (byte) 3);
+        table.setModificationDate(file1Id, 100L);
+        table.setTotalTargets(file1Id, 1);
+        table.setTotalTargetFiles(file1Id, 1);
+        table.setHash(file1Id, Fingerprint.of(5L, new byte[] {1}));
+        TargetImpl.HashRounds rounds = new TargetImpl.HashRounds();
+        table.setHashRounds(file3Id, rounds);
+        TargetImpl file1Target = table.getTarget(file1Id);
+
+        TargetTable compacted = table.compact();
+        assertEquals(6, compacted.getLength());
+        assertEquals(ImmutableList.of(dir1, file1, file2, dir2, file3),
+                ImmutableList.of(compacted.getResource(2), compacted.getResource(3), compacted.getResource(4),
+                        compacted.getResource(5), compacted.getResource(6)));
+        assertEquals(1, compacted.getOrder(TargetTable.ROOT));
+        assertEquals(6, compacted.getLastDescendantOrder(TargetTable.ROOT));
+        assertEquals(4, compacted.getLastDescendantOrder(2));
+        assertEquals(3, compacted.getLastDescendantOrder(3));
+        assertEquals(6, compacted.getLastDescendantOrder(5));
+        assertEquals(ImmutableList.of(dir1, dir2), getResources(compacted.getChildTargets(TargetTable.ROOT)));
+        assertEquals(ImmutableList.of(file1, file2), getResources(compacted.getChildTargets(2)));
+        assertEquals(dir2, compacted.getParentTarget(6).getResource());
+
+        assertEquals(5L, compacted.getSize(3));
+        assertEquals(3, compacted.getFlags(3));
+        assertEquals(100L, compacted.getModificationDate(3));
+        assertEquals(1, compacted.getTotalTargets(3));
+        assertEquals(1, compacted.getTotalTargetFiles(3));
+        assertEquals(Fingerprint.of(5L, new byte[] {1}), compacted.getHash(3));
+        assertSame(rounds, compacted.getHashRounds(6));
+        assertEquals("file1".hashCode(), compacted.getNameHashCode(3));
+
+        // the targets created before the compaction follow their nodes
+        assertEquals(3, file1Target.getOrder());
+        assertEquals(file1, file1Target.getResource());
+        assertEquals(2, file1Target.getParent().getOrder());
+        table.setSize(file1Id, 6L);
+        assertEquals(6L, compacted.getSize(3));
+
+        try {
+            table.compact();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected because the table was already compacted
+        }
+
+        try {
+            compacted.addChildren(3, ImmutableList.of(file3));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected because the compacted table cannot grow
+        }
+    }
+
+    @Test
+    public void testDetach() {
+        // root---dir1---dir2---file1
+        //     \
+        //      --dir2 (detached because it is also a descendant of dir1)
+        int dir1Id = table.addChildren(TargetTable.ROOT, ImmutableList.of(dir1, dir2));
+        int dir2Id = dir1Id + 1;
+        int nestedDir2Id = table.addChildren(dir1Id, ImmutableList.of(dir2));
+        table.addChildren(nestedDir2Id, ImmutableList.of(file1));
+        table.addChildren(dir2Id, ImmutableList.of(file2));
+        table.detach(dir2Id);
+        assertEquals(ImmutableList.of(dir1), getResources(table.getChildTargets(TargetTable.ROOT)));
+
+        try {
+            table.detach(nestedDir2Id);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected because the node is not a child of the root
+        }
+
+        TargetTable compacted = table.compact();
+        assertEquals(1, compacted.getChildCount(TargetTable.ROOT));
+        assertEquals(ImmutableList.of(dir1), getResources(compacted.getChildTargets(TargetTable.ROOT)));
+        assertEquals(4, compacted.getLastDescendantOrder(TargetTable.ROOT));
+
+        // the detached nodes are moved after the tree
+        assertEquals(5, table.getOrder(dir2Id));
+        assertEquals(6, table.getLastDescendantOrder(dir2Id));
+        assertEquals(file2, compacted.getResource(6));
+    }
+}
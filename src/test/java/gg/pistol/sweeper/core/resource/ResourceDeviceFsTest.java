@@ -0,0 +1,130 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import static org.junit.Assert.*;
+import static gg.pistol.sweeper.test.ObjectVerifier.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class ResourceDeviceFsTest {
+
+    private File sysfs;
+
+    @Before
+    public void setUp() throws Exception {
+        sysfs = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteRecursively(sysfs.getCanonicalFile());
+    }
+
+    /*
+     * Create the sysfs structure:
+     *
+     * block/sda -> devices/sda
+     * block/sda1 -> devices/sda/sda1
+     * devices/sda/queue/rotational
+     */
+    private File createSysBlock(String device, String partition, String rotational) throws Exception {
+        File block = new File(sysfs, "block");
+        File deviceDir = new File(new File(sysfs, "devices"), device);
+        File queue = new File(deviceDir, "queue");
+        assertTrue(queue.mkdirs());
+        new File(deviceDir, partition).mkdir();
+        Files.write(rotational + "\n", new File(queue, "rotational"), Charset.forName("US-ASCII"));
+
+        block.mkdir();
+        Path blockPath = block.toPath();
+        java.nio.file.Files.createSymbolicLink(blockPath.resolve(device), deviceDir.toPath());
+        java.nio.file.Files.createSymbolicLink(blockPath.resolve(partition), new File(deviceDir, partition).toPath());
+        return block;
+    }
+
+    @Test
+    public void testIsRotational() throws Exception {
+        File block = createSysBlock("sdz", "sdz1", "1");
+        assertTrue(ResourceDeviceFs.isRotational(block, "/dev/sdz"));
+        assertTrue(ResourceDeviceFs.isRotational(block, "/dev/sdz1"));
+        assertTrue(ResourceDeviceFs.isRotational(block, "sdz1"));
+
+        assertFalse(ResourceDeviceFs.isRotational(block, "/dev/unknown"));
+        assertFalse(ResourceDeviceFs.isRotational(block, "tmpfs"));
+        assertFalse(ResourceDeviceFs.isRotational(block, ""));
+    }
+
+    @Test
+    public void testIsNotRotational() throws Exception {
+        File block = createSysBlock("nvme9n1", "nvme9n1p1", "0");
+        assertFalse(ResourceDeviceFs.isRotational(block, "/dev/nvme9n1"));
+        assertFalse(ResourceDeviceFs.isRotational(block, "/dev/nvme9n1p1"));
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        File file = File.createTempFile("sweeper", null, sysfs);
+        ResourceDeviceFs device = ResourceDeviceFs.of(file);
+        assertEquals(device, ResourceDeviceFs.of(File.createTempFile("sweeper", null, sysfs)));
+        assertEquals(java.nio.file.Files.getFileStore(file.toPath()).name(), device.getName());
+    }
+
+    @Test
+    public void testLookupDeletedFile() throws Exception {
+        File file = File.createTempFile("sweeper", null, sysfs);
+        ResourceDeviceFs device = new ResourceDeviceFs(7L, file.toPath());
+        assertTrue(file.delete());
+
+        assertEquals("7", device.getName());
+        assertFalse(device.isRotational());
+    }
+
+    @Test
+    public void testEquals() {
+        verifyEquals(new ResourceDeviceFs("foo", true), new ResourceDeviceFs("foo", true), new ResourceDeviceFs("bar", true));
+        assertFalse(new ResourceDeviceFs("foo", true).equals(new ResourceDeviceFs("foo", false)));
+
+        // the devices with the same file store name (e.g. tmpfs) are distinguished by their ID
+        Path path = sysfs.toPath();
+        verifyEquals(new ResourceDeviceFs(1L, path), new ResourceDeviceFs(1L, path.resolve("foo")),
+                new ResourceDeviceFs(2L, path));
+        assertFalse(new ResourceDeviceFs(1L, path).equals(new ResourceDeviceFs("foo", false)));
+        assertFalse(new ResourceDeviceFs("foo", false).equals(new ResourceDeviceFs(1L, path)));
+    }
+
+    @Test
+    public void testHashCode() {
+        verifyHashCode(new ResourceDeviceFs("foo", true), new ResourceDeviceFs("foo", true));
+        verifyHashCode(new ResourceDeviceFs(1L, sysfs.toPath()), new ResourceDeviceFs(1L, sysfs.toPath()));
+    }
+
+    @Test
+    public void testToString() {
+        verifyToString(new ResourceDeviceFs("foo", true));
+    }
+
+}
@@ -22,10 +22,14 @@ import static org.mockito.Mockito.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
 public class ResourceDirectoryFsTest {
 
     @Test
@@ -60,30 +64,113 @@ public class ResourceDirectoryFsTest {
     }
 
     @Test
-    public void testGetSubresources() throws Exception {
-        File dir = mockFile("foo", true);
+    public void testGetChildPath() throws Exception {
+        ResourceDirectoryFs res = new ResourceDirectoryFs(mockFile("foo", true));
+        assertEquals("foo" + File.separator + "bar", res.getChildPath("bar"));
 
-        File child1 = mockFile("foo/child1", true);
-        File child2 = mockFile("foo/child2", true);
-        File child3 = mockFile("foo/child3", false);
-        when(dir.listFiles()).thenReturn(new File[]{child1, child2, child3});
+        res = new ResourceDirectoryFs(mockFile(File.separator, true));
+        assertEquals(File.separator + "bar", res.getChildPath("bar"));
 
-        ResourceDirectoryFs res = new ResourceDirectoryFs(dir);
-        Iterator<? extends Resource> iterator = res.getSubresources().getResources().iterator();
+        // the sub-directories only store their name
+        ResourceDirectoryFs child = new ResourceDirectoryFs(res, "bar");
+        assertEquals(File.separator + "bar", child.getName());
+        assertEquals(File.separator + "bar" + File.separator + "baz", child.getChildPath("baz"));
+    }
 
-        assertEquals("foo/child1", iterator.next().getName());
-        assertEquals("foo/child2", iterator.next().getName());
-        assertEquals("foo/child3", iterator.next().getName());
-        assertTrue(res.getSubresources().getExceptions().isEmpty());
+    @Test
+    public void testGetSubresources() throws Exception {
+        File dir = Files.createTempDir().getCanonicalFile();
+        try {
+            new File(dir, "child1").mkdir();
+            new File(dir, "child2").mkdir();
+            File child3 = new File(dir, "child3");
+            Files.write("foo", child3, Charsets.UTF_8);
+            child3.setLastModified(10000L);
+
+            // the symbolic links are ignored
+            java.nio.file.Files.createSymbolicLink(new File(dir, "link1").toPath(), child3.toPath());
+            java.nio.file.Files.createSymbolicLink(new File(dir, "link2").toPath(), dir.toPath());
+
+            ResourceDirectoryFs res = new ResourceDirectoryFs(dir);
+            ResourceDirectory.ResourceCollectionResponse response = res.getSubresources();
+            Iterator<? extends Resource> iterator = response.getResources().iterator();
+
+            Resource r = iterator.next();
+            assertTrue(r instanceof ResourceDirectoryFs);
+            assertEquals(new File(dir, "child1").getPath(), r.getName());
+            assertEquals(new File(dir, "child2").getPath(), iterator.next().getName());
+            r = iterator.next();
+            assertTrue(r instanceof ResourceFileFs);
+            assertEquals(child3.getPath(), r.getName());
+            assertEquals(3L, ((ResourceFileFs) r).getSize());
+            assertEquals(10000L, ((ResourceFileFs) r).getModificationDate().getMillis());
+            assertFalse(iterator.hasNext());
+            assertTrue(response.getExceptions().isEmpty());
+            assertFalse(((ResourceDirectory.FilteredResourceCollectionResponse) response).hasExcludedResources());
+
+            Files.deleteRecursively(dir);
+            assertTrue(res.getSubresources().getResources().isEmpty());
+            assertEquals(1, res.getSubresources().getExceptions().size());
+        } finally {
+            if (dir.exists()) {
+                Files.deleteRecursively(dir);
+            }
+        }
+    }
 
-        when(child1.isDirectory()).thenReturn(false);
-        when(child2.isDirectory()).thenReturn(false);
-        assertEquals(1, res.getSubresources().getResources().size());
-        assertEquals(2, res.getSubresources().getExceptions().size());
+    @Test
+    public void testGetSubresourcesFilter() throws Exception {
+        File dir = Files.createTempDir().getCanonicalFile();
+        try {
+            File git = new File(dir, ".git");
+            git.mkdir();
+            Files.write("foo", new File(git, "config"), Charsets.UTF_8);
+            File src = new File(dir, "src");
+            src.mkdir();
+            Files.write("foo", new File(src, "foo.java"), Charsets.UTF_8);
+            Files.write("foo", new File(src, "foo.tmp"), Charsets.UTF_8);
+            Files.write("", new File(src, "empty.java"), Charsets.UTF_8);
+
+            ResourceFilter filter = new ResourceFilter().excludeName(".git").excludeName("*.tmp").setMinFileSize(1L);
+            ResourceDirectoryFs res = new ResourceDirectoryFs(dir, filter);
+            ResourceDirectory.ResourceCollectionResponse response = res.getSubresources();
+            Collection<? extends Resource> resources = response.getResources();
+            assertEquals(1, resources.size());
+            assertTrue(((ResourceDirectory.FilteredResourceCollectionResponse) response).hasExcludedResources());
+
+            // the filter is inherited by the sub-directories
+            ResourceDirectory srcRes = (ResourceDirectory) resources.iterator().next();
+            assertEquals(src.getPath(), srcRes.getName());
+            resources = srcRes.getSubresources().getResources();
+            assertEquals(1, resources.size());
+            assertEquals(new File(src, "foo.java").getPath(), resources.iterator().next().getName());
+        } finally {
+            Files.deleteRecursively(dir);
+        }
+    }
 
-        when(dir.listFiles()).thenReturn(null);
-        assertTrue(res.getSubresources().getResources().isEmpty());
-        assertEquals(1, res.getSubresources().getExceptions().size());
+    @Test
+    public void testGetSubresourcesSameFileSystem() throws Exception {
+        File dir = Files.createTempDir().getCanonicalFile();
+        try {
+            new File(dir, "child1").mkdir();
+            Files.write("foo", new File(dir, "child2"), Charsets.UTF_8);
+
+            ResourceDirectoryFs res = new ResourceDirectoryFs(dir, new ResourceFilter().setSameFileSystem(true));
+            assertEquals(2, res.getSubresources().getResources().size());
+            assertEquals(ResourceDirectoryFs.getFileSystemId(dir.toPath()),
+                    ResourceDirectoryFs.getFileSystemId(new File(dir, "child1").toPath()));
+
+            // the directories from other file systems are skipped
+            res = new ResourceDirectoryFs(dir, new ResourceFilter(), "otherFileSystem");
+            ResourceDirectory.ResourceCollectionResponse response = res.getSubresources();
+            Collection<? extends Resource> resources = response.getResources();
+            assertEquals(1, resources.size());
+            assertTrue(((ResourceDirectory.FilteredResourceCollectionResponse) response).hasExcludedResources());
+            assertEquals(new File(dir, "child2").getPath(), resources.iterator().next().getName());
+        } finally {
+            Files.deleteRecursively(dir);
+        }
     }
 
     @Test
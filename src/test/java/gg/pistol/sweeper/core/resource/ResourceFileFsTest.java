@@ -21,7 +21,12 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -54,6 +59,34 @@ public class ResourceFileFsTest {
         return file;
     }
 
+    @Test
+    public void testConstructorAttributes() throws Exception {
+        File dir = mock(File.class);
+        when(dir.isDirectory()).thenReturn(true);
+        when(dir.getPath()).thenReturn("bar");
+        when(dir.getCanonicalFile()).thenReturn(dir);
+        ResourceDirectoryFs parent = new ResourceDirectoryFs(dir);
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.isRegularFile()).thenReturn(true);
+        when(attributes.size()).thenReturn(10L);
+        when(attributes.lastModifiedTime()).thenReturn(FileTime.fromMillis(20L));
+        when(attributes.fileKey()).thenReturn("key");
+
+        ResourceFileFs res = new ResourceFileFs(parent, "foo", attributes);
+        assertEquals("bar" + File.separator + "foo", res.getName());
+        assertEquals(10L, res.getSize());
+        assertEquals(20L, res.getModificationDate().getMillis());
+        assertEquals("key", res.getFileKey());
+
+        when(attributes.isRegularFile()).thenReturn(false);
+        try {
+            new ResourceFileFs(parent, "foo", attributes);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testGetSize() throws Exception {
         File file = mockFile("foo");
@@ -74,6 +107,60 @@ public class ResourceFileFsTest {
         assertEquals(time, res.getModificationDate());
     }
 
+    @Test
+    public void testGetChannel() throws Exception {
+        File file = File.createTempFile("sweeper", null);
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+
+        FileChannel channel = new ResourceFileFs(file).getChannel();
+        try {
+            assertEquals(0L, channel.position());
+            assertEquals(10L, channel.size());
+        } finally {
+            channel.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testGetFileKey() throws Exception {
+        File file = File.createTempFile("sweeper", null);
+        file.deleteOnExit();
+
+        Object fileKey = new ResourceFileFs(file).getFileKey();
+        assertEquals(fileKey, new ResourceFileFs(file).getFileKey());
+        file.delete();
+    }
+
+    @Test
+    public void testGetDevice() throws Exception {
+        File file = File.createTempFile("sweeper", null);
+        file.deleteOnExit();
+
+        assertNotNull(new ResourceFileFs(file).getDevice());
+        file.delete();
+    }
+
+    @Test
+    public void testGetPhysicalOrder() throws Exception {
+        File file1 = File.createTempFile("sweeper", null);
+        file1.deleteOnExit();
+        File file2 = File.createTempFile("sweeper", null);
+        file2.deleteOnExit();
+
+        long order1 = new ResourceFileFs(file1).getPhysicalOrder();
+        assertEquals(order1, new ResourceFileFs(file1).getPhysicalOrder());
+        assertTrue(order1 == 0 || order1 != new ResourceFileFs(file2).getPhysicalOrder());
+        file1.delete();
+        file2.delete();
+    }
+
     @Test
     public void testDelete() throws Exception {
         File file = mockFile("foo");
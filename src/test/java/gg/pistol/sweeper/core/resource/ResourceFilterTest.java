@@ -0,0 +1,135 @@
+/*
+ * Sweeper - Duplicate file cleaner
+ * Copyright (C) 2012 Bogdan Ciprian Pistol
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gg.pistol.sweeper.core.resource;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceFilterTest {
+
+    private ResourceFilter filter;
+    private BasicFileAttributes file;
+    private BasicFileAttributes dir;
+
+    @Before
+    public void setUp() {
+        filter = new ResourceFilter();
+        file = mock(BasicFileAttributes.class);
+        when(file.isRegularFile()).thenReturn(true);
+        when(file.size()).thenReturn(10L);
+        dir = mock(BasicFileAttributes.class);
+        when(dir.isDirectory()).thenReturn(true);
+    }
+
+    @Test
+    public void testAcceptAll() {
+        assertTrue(filter.accept(Paths.get("/foo/bar"), file));
+        assertTrue(filter.accept(Paths.get("/foo/bar"), dir));
+        assertTrue(filter.accept(Paths.get("/"), dir));
+    }
+
+    @Test
+    public void testExcludeName() {
+        filter.excludeName(".git").excludeName("*.tmp");
+
+        assertFalse(filter.accept(Paths.get("/foo/.git"), dir));
+        assertFalse(filter.accept(Paths.get("/foo/bar.tmp"), file));
+        assertTrue(filter.accept(Paths.get("/foo/bar.txt"), file));
+        assertTrue(filter.accept(Paths.get("/foo/.gitignore"), file));
+    }
+
+    @Test
+    public void testExcludePath() {
+        filter.excludePath("glob:/foo/*/cache").excludePath("regex:.*\\.bak");
+
+        assertFalse(filter.accept(Paths.get("/foo/bar/cache"), dir));
+        assertTrue(filter.accept(Paths.get("/foo/cache"), dir));
+        assertFalse(filter.accept(Paths.get("/foo/bar.bak"), file));
+        assertTrue(filter.accept(Paths.get("/foo/bar.bak2"), file));
+    }
+
+    @Test
+    public void testIncludePath() {
+        filter.includePath("glob:**.jpg");
+
+        assertTrue(filter.accept(Paths.get("/foo/bar.jpg"), file));
+        assertFalse(filter.accept(Paths.get("/foo/bar.png"), file));
+
+        // the directories are not affected
+        assertTrue(filter.accept(Paths.get("/foo/bar"), dir));
+    }
+
+    @Test
+    public void testFileSize() {
+        filter.setMinFileSize(10L).setMaxFileSize(20L);
+        assertTrue(filter.accept(Paths.get("/foo"), file));
+
+        when(file.size()).thenReturn(9L);
+        assertFalse(filter.accept(Paths.get("/foo"), file));
+        when(file.size()).thenReturn(21L);
+        assertFalse(filter.accept(Paths.get("/foo"), file));
+
+        // the directories are not affected
+        assertTrue(filter.accept(Paths.get("/foo"), dir));
+    }
+
+    @Test
+    public void testSameFileSystem() {
+        assertFalse(filter.isSameFileSystem());
+        assertTrue(filter.setSameFileSystem(true).isSameFileSystem());
+    }
+
+    @Test
+    public void testException() {
+        try {
+            filter.excludeName(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        try {
+            filter.excludePath("foo");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected because the syntax is missing
+        }
+
+        try {
+            filter.setMinFileSize(-1L);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            filter.accept(null, file);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+}